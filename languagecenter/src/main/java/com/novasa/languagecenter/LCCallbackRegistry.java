@@ -0,0 +1,133 @@
+package com.novasa.languagecenter;
+
+import androidx.annotation.NonNull;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A set of weakly referenced callbacks, compared by identity, in order of registration.
+ * <p>
+ * Registering and unregistering are O(1). Callbacks that have been garbage collected are removed through a reference queue,
+ * so nothing ever has to scan for them. Dispatching uses a snapshot array that is only rebuilt after the set has changed,
+ * so notifying the same callbacks again doesn't allocate.
+ * <p>
+ * Not thread safe. Callers must synchronize.
+ */
+final class LCCallbackRegistry<T> {
+
+    private static final WeakReference<?>[] EMPTY = new WeakReference<?>[0];
+
+    /**
+     * A weak reference that is equal to another if they refer to the same object. Cleared references are only equal to themselves.
+     */
+    private static final class Key<T> extends WeakReference<T> {
+
+        private final int mHash;
+
+        Key(T referent, ReferenceQueue<? super T> queue) {
+            super(referent, queue);
+            mHash = System.identityHashCode(referent);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            final Object referent = get();
+            return referent != null && referent == ((Key<?>) o).get();
+        }
+    }
+
+    private final ReferenceQueue<T> mQueue = new ReferenceQueue<>();
+    private final Map<Key<T>, Key<T>> mCallbacks = new LinkedHashMap<>();
+
+    private WeakReference<?>[] mSnapshot = EMPTY;
+    private boolean mDirty;
+
+    /**
+     * @return false if the callback was already registered
+     */
+    boolean add(@NonNull T callback) {
+        expunge();
+
+        final Key<T> key = new Key<>(callback, mQueue);
+        if (mCallbacks.containsKey(key)) {
+            return false;
+        }
+
+        mCallbacks.put(key, key);
+        mDirty = true;
+        return true;
+    }
+
+    /**
+     * @return false if the callback was not registered
+     */
+    boolean remove(@NonNull T callback) {
+        expunge();
+
+        // The probe key is never enqueued, since it has no queue
+        if (mCallbacks.remove(new Key<T>(callback, null)) == null) {
+            return false;
+        }
+
+        mDirty = true;
+        return true;
+    }
+
+    void clear() {
+        if (!mCallbacks.isEmpty()) {
+            mCallbacks.clear();
+            mDirty = true;
+        }
+
+        // The queue may still hold keys of this registration, but removing them again does nothing
+    }
+
+    int size() {
+        expunge();
+        return mCallbacks.size();
+    }
+
+    /**
+     * @return the registered callbacks. The array must not be modified, and is valid until it is replaced, so it can be used without synchronizing.
+     * References may have been cleared since, so check them when dispatching.
+     */
+    @SuppressWarnings("unchecked")
+    @NonNull
+    WeakReference<T>[] snapshot() {
+        expunge();
+
+        if (mDirty) {
+            mSnapshot = mCallbacks.isEmpty() ? EMPTY : mCallbacks.keySet().toArray(new WeakReference<?>[mCallbacks.size()]);
+            mDirty = false;
+        }
+
+        return (WeakReference<T>[]) mSnapshot;
+    }
+
+    private void expunge() {
+        Reference<? extends T> reference;
+        while ((reference = mQueue.poll()) != null) {
+            // Cleared keys are only equal to themselves, so this removes exactly the collected key
+            if (mCallbacks.remove(reference) != null) {
+                mDirty = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,489 @@
+package com.novasa.languagecenter;
+
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Formattable;
+import java.util.Formatter;
+import java.util.IllegalFormatException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Formats translations with {@link String#format} semantics, without parsing the format string on every call.
+ * <p>
+ * Format strings are compiled once into a template of literal text and specifiers, and cached per translation key.
+ * The cache is cleared whenever the language or the published translations change.
+ * Plain %s and %d specifiers are rendered directly, anything else is delegated to a reused {@link Formatter} one specifier at a time.
+ * <p>
+ * Templates are validated when compiled, and the arguments are checked against the template before rendering,
+ * so an invalid translation can be detected without catching exceptions.
+ */
+final class LCFormatter {
+
+    private static final int CACHE_SIZE = 128;
+    private static final int FALLBACK_CACHE_SIZE = 32;
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator", "\n");
+    private static final String FLAGS = "-#+ 0,(<";
+    private static final String CONVERSIONS = "bBhHsScCdoxXeEfgGaA";
+    private static final String DATE_CONVERSIONS = "HIklMSLNpzZsQBbhAaCYyjmdeRTrDFc";
+
+    /**
+     * A compiled format string.
+     * <p>
+     * Specifier i is preceded by literal i, and the last literal follows the last specifier.
+     */
+    static final class Template {
+
+        private final String mSource;
+        private final boolean mValid;
+
+        private final String[] mLiterals;
+        private final int[] mArgIndex;
+        private final char[] mConversion;
+        private final boolean[] mSimple;
+        private final String[] mSpecifier;
+
+        private Template(String source, boolean valid, String[] literals, int[] argIndex, char[] conversion, boolean[] simple, String[] specifier) {
+            mSource = source;
+            mValid = valid;
+            mLiterals = literals;
+            mArgIndex = argIndex;
+            mConversion = conversion;
+            mSimple = simple;
+            mSpecifier = specifier;
+        }
+
+        /**
+         * @return true if the template has no specifiers, and renders as its single literal
+         */
+        boolean isLiteral() {
+            return mValid && mArgIndex.length == 0;
+        }
+    }
+
+    private static final class LocaleInfo {
+
+        final String mLanguage;
+        final Locale mLocale;
+        final char mZeroDigit;
+
+        LocaleInfo(String language) {
+            mLanguage = language;
+            mLocale = new Locale(language);
+            mZeroDigit = DecimalFormatSymbols.getInstance(mLocale).getZeroDigit();
+        }
+    }
+
+    /** Per thread scratch state, so rendering doesn't allocate anything but the result. */
+    private static final class Scratch {
+
+        final StringBuilder mBuilder = new StringBuilder(64);
+        final Formatter mFormatter = new Formatter(mBuilder);
+        final Object[] mArg = new Object[1];
+        boolean mBusy;
+    }
+
+    private static final ThreadLocal<Scratch> sScratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private final LruCache<String, Template> mTemplates = new LruCache<>(CACHE_SIZE);
+    private final LruCache<String, Template> mFallbacks = new LruCache<>(FALLBACK_CACHE_SIZE);
+
+    private final Object mLock = new Object();
+    private String mLanguage;
+    private int mVersion;
+
+    private volatile LocaleInfo mLocale;
+
+    /**
+     * Format a translation.
+     *
+     * @param language the language the translation is in
+     * @param version  the version of the translations, see {@link LCTranslationsDB#getVersion()}. Cached templates are discarded when this changes.
+     * @param key      the translation key the template is cached under. Without a key the template is compiled, but not cached.
+     * @param format   the translation
+     * @param args     the format arguments
+     * @return the formatted translation, or null if the translation is not a valid format string for the arguments
+     */
+    @Nullable
+    String format(@NonNull String language, int version, @Nullable String key, @NonNull String format, Object[] args) {
+        validate(language, version);
+        return render(get(mTemplates, key, format), getLocaleInfo(language), args);
+    }
+
+    /**
+     * Format the fallback text of a translation. Fallback templates are cached separately from translations, since they don't change with updates.
+     *
+     * @return the formatted text, or null if the fallback is not a valid format string for the arguments
+     */
+    @Nullable
+    String formatFallback(@NonNull String language, @Nullable String key, @NonNull String fallback, Object[] args) {
+        return render(get(mFallbacks, key, fallback), getLocaleInfo(language), args);
+    }
+
+    /**
+     * @return the locale used to format translations in the language
+     */
+    @NonNull
+    Locale getLocale(@NonNull String language) {
+        return getLocaleInfo(language).mLocale;
+    }
+
+    private void validate(String language, int version) {
+        synchronized (mLock) {
+            if (version != mVersion || !language.equals(mLanguage)) {
+                mTemplates.evictAll();
+                mVersion = version;
+                mLanguage = language;
+            }
+        }
+    }
+
+    private LocaleInfo getLocaleInfo(String language) {
+        LocaleInfo info = mLocale;
+        if (info == null || !info.mLanguage.equals(language)) {
+            info = new LocaleInfo(language);
+            mLocale = info;
+        }
+        return info;
+    }
+
+    private static Template get(LruCache<String, Template> cache, String key, String format) {
+        if (key == null || key.isEmpty()) {
+            // LruCache doesn't take null keys, and every empty key would share a template
+            return compile(format);
+        }
+
+        Template template = cache.get(key);
+
+        // The fallback is returned for missing translations, and call sites may pass different fallbacks for the same key
+        if (template == null || !template.mSource.equals(format)) {
+            template = compile(format);
+            cache.put(key, template);
+        }
+
+        return template;
+    }
+
+    @Nullable
+    private static String render(Template template, LocaleInfo locale, Object[] args) {
+        if (!template.mValid) {
+            return null;
+        }
+
+        if (template.isLiteral()) {
+            return template.mLiterals[0];
+        }
+
+        final int argCount = args != null ? args.length : 0;
+        final int[] argIndex = template.mArgIndex;
+        for (int i = 0; i < argIndex.length; i++) {
+            if (argIndex[i] >= argCount || !accepts(template.mConversion[i], args[argIndex[i]])) {
+                return null;
+            }
+        }
+
+        Scratch scratch = sScratch.get();
+        if (scratch.mBusy) {
+            // An argument's toString() formatted another translation
+            scratch = new Scratch();
+        }
+
+        final StringBuilder builder = scratch.mBuilder;
+        builder.setLength(0);
+        scratch.mBusy = true;
+
+        try {
+            for (int i = 0; i < argIndex.length; i++) {
+                builder.append(template.mLiterals[i]);
+
+                final Object arg = args[argIndex[i]];
+                if (!template.mSimple[i] || !appendSimple(builder, template.mConversion[i], arg, locale.mZeroDigit)) {
+                    scratch.mArg[0] = arg;
+                    scratch.mFormatter.format(locale.mLocale, template.mSpecifier[i], scratch.mArg);
+                    scratch.mArg[0] = null;
+                }
+            }
+
+            builder.append(template.mLiterals[argIndex.length]);
+            return builder.toString();
+
+        } catch (IllegalFormatException e) {
+            // Argument types are checked up front, so this is only a safety net for delegated specifiers
+            Logger.e(e, "Failed to format: %s", template.mSource);
+            scratch.mArg[0] = null;
+            return null;
+
+        } finally {
+            scratch.mBusy = false;
+
+            // Don't hold on to the memory of an unusually long translation
+            if (builder.capacity() > 1024) {
+                builder.setLength(0);
+                builder.trimToSize();
+            }
+        }
+    }
+
+    /**
+     * Append a plain %s or %d.
+     *
+     * @return false if the argument must be formatted by {@link Formatter}
+     */
+    private static boolean appendSimple(StringBuilder builder, char conversion, Object arg, char zeroDigit) {
+        if (conversion == 's') {
+            if (arg instanceof Formattable) {
+                return false;
+            }
+            builder.append(arg);
+            return true;
+        }
+
+        // %d
+        if (arg == null) {
+            builder.append("null");
+            return true;
+        }
+
+        if (isIntegral(arg)) {
+            final int start = builder.length();
+            builder.append(((Number) arg).longValue());
+
+            if (zeroDigit != '0') {
+                for (int i = start; i < builder.length(); i++) {
+                    final char c = builder.charAt(i);
+                    if (c >= '0' && c <= '9') {
+                        builder.setCharAt(i, (char) (zeroDigit + c - '0'));
+                    }
+                }
+            }
+            return true;
+        }
+
+        // BigInteger
+        return false;
+    }
+
+    /**
+     * Check the argument type of a conversion, so a mismatch selects the fallback instead of throwing {@link java.util.IllegalFormatConversionException}.
+     */
+    private static boolean accepts(char conversion, Object arg) {
+        if (arg == null) {
+            return true;
+        }
+
+        switch (conversion) {
+            case 'd':
+            case 'o':
+            case 'x':
+            case 'X':
+                return isIntegral(arg) || arg instanceof BigInteger;
+
+            case 'e':
+            case 'E':
+            case 'f':
+            case 'g':
+            case 'G':
+                return arg instanceof Double || arg instanceof Float || arg instanceof BigDecimal;
+
+            case 'a':
+            case 'A':
+                return arg instanceof Double || arg instanceof Float;
+
+            case 'c':
+            case 'C':
+                return arg instanceof Character || arg instanceof Byte || arg instanceof Short || arg instanceof Integer;
+
+            default:
+                // String and boolean conversions accept anything, and date conversions are left to Formatter
+                return true;
+        }
+    }
+
+    private static boolean isIntegral(Object arg) {
+        return arg instanceof Integer || arg instanceof Long || arg instanceof Short || arg instanceof Byte;
+    }
+
+    /**
+     * Compile a format string. Mirrors the specifier syntax of {@link Formatter}:
+     * <i>%[argument_index$][flags][width][.precision]conversion</i>
+     */
+    @NonNull
+    static Template compile(@NonNull String format) {
+        if (format.indexOf('%') < 0) {
+            return new Template(format, true, new String[]{format}, new int[0], new char[0], new boolean[0], new String[0]);
+        }
+
+        final List<String> literals = new ArrayList<>();
+        final List<String> specifiers = new ArrayList<>();
+        final List<Integer> argIndices = new ArrayList<>();
+
+        final int length = format.length();
+        final StringBuilder literal = new StringBuilder();
+        int ordinary = 0;
+        int last = -1;
+
+        int i = 0;
+        while (i < length) {
+            final char c = format.charAt(i);
+            if (c != '%') {
+                literal.append(c);
+                i++;
+                continue;
+            }
+
+            // Argument index
+            int p = i + 1;
+            int index = -1;
+            int digits = p;
+            while (digits < length && isDigit(format.charAt(digits))) {
+                digits++;
+            }
+            if (digits > p && digits < length && format.charAt(digits) == '$') {
+                // Like Formatter, index 0 is treated as an ordinary index
+                index = parseInt(format, p, digits) - 1;
+                p = digits + 1;
+            }
+
+            // Flags
+            final int flagsStart = p;
+            while (p < length && FLAGS.indexOf(format.charAt(p)) >= 0) {
+                p++;
+            }
+            final String flags = format.substring(flagsStart, p);
+
+            // Width
+            final int widthStart = p;
+            while (p < length && isDigit(format.charAt(p))) {
+                p++;
+            }
+            final boolean hasWidth = p > widthStart;
+
+            // Precision
+            final int precisionStart = p;
+            if (p < length && format.charAt(p) == '.') {
+                p++;
+                final int precisionDigits = p;
+                while (p < length && isDigit(format.charAt(p))) {
+                    p++;
+                }
+                if (p == precisionDigits) {
+                    return invalid(format);
+                }
+            }
+            final boolean hasPrecision = p > precisionStart;
+
+            if (p >= length) {
+                return invalid(format);
+            }
+
+            char conversion = format.charAt(p);
+            final int conversionStart = p;
+            if (conversion == 't' || conversion == 'T') {
+                p++;
+                if (p >= length || DATE_CONVERSIONS.indexOf(format.charAt(p)) < 0) {
+                    return invalid(format);
+                }
+
+            } else if (conversion == '%' || conversion == 'n') {
+                if (index >= 0 || flags.indexOf('<') >= 0) {
+                    return invalid(format);
+                }
+
+                if (conversion == 'n') {
+                    literal.append(LINE_SEPARATOR);
+
+                } else if (hasPrecision || (!flags.isEmpty() && !(flags.equals("-") && hasWidth))) {
+                    return invalid(format);
+
+                } else {
+                    // Formatter ignores the width of %%
+                    literal.append('%');
+                }
+
+                i = p + 1;
+                continue;
+
+            } else if (CONVERSIONS.indexOf(conversion) < 0) {
+                return invalid(format);
+
+            } else if (hasPrecision && "dxXocC".indexOf(conversion) >= 0) {
+                return invalid(format);
+            }
+
+            if (!hasWidth && (flags.indexOf('-') >= 0 || flags.indexOf('0') >= 0)) {
+                return invalid(format);
+            }
+
+            // Resolve the argument
+            if (flags.indexOf('<') >= 0) {
+                if (last < 0) {
+                    return invalid(format);
+                }
+                index = last;
+
+            } else if (index < 0) {
+                index = ordinary++;
+            }
+            last = index;
+
+            final String specifier = "%" + flags.replace("<", "") + format.substring(widthStart, conversionStart) + format.substring(conversionStart, p + 1);
+
+            literals.add(literal.toString());
+            literal.setLength(0);
+            specifiers.add(specifier);
+            argIndices.add(index);
+
+            i = p + 1;
+        }
+
+        literals.add(literal.toString());
+
+        final int count = specifiers.size();
+        final int[] argIndex = new int[count];
+        final char[] conversions = new char[count];
+        final boolean[] simple = new boolean[count];
+        for (int s = 0; s < count; s++) {
+            final String specifier = specifiers.get(s);
+            argIndex[s] = argIndices.get(s);
+            final char conversion = specifier.charAt(specifier.length() - 1);
+            final char prefix = specifier.charAt(specifier.length() - 2);
+            conversions[s] = prefix == 't' || prefix == 'T' ? prefix : conversion;
+            simple[s] = specifier.length() == 2 && (conversions[s] == 's' || conversions[s] == 'd');
+        }
+
+        return new Template(format, true, literals.toArray(new String[literals.size()]), argIndex, conversions, simple, specifiers.toArray(new String[count]));
+    }
+
+    private static Template invalid(String format) {
+        return new Template(format, false, null, null, null, null, null);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int parseInt(String s, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * 10 + (s.charAt(i) - '0');
+            if (value > 0xffff) {
+                // Larger than any argument list
+                return 0xffff;
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,294 @@
+package com.novasa.languagecenter;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static android.content.Context.MODE_PRIVATE;
+
+/**
+ * Collects translation keys that were missing at lookup, and reports them to the server so they can be created.
+ * <p>
+ * Keys are deduplicated case insensitively, and a key that is pending, in flight, already reported or rejected is never sent again.
+ * Pending keys are flushed in batches a moment after they are first missed, and are persisted, so they survive process death.
+ * Reported keys are remembered until the next full download of the active language, which will include the created translations.
+ * Keys the server rejected are remembered with the time they were rejected, and are only sent again once that is {@value #REJECTED_MAX_AGE_MS} ms ago,
+ * in case the server changes its mind, e.g. after the key has been allowed.
+ */
+final class LCMissingKeyOutbox {
+
+    interface Sender {
+
+        /**
+         * Report a missing key. The result must be delivered on the main thread.
+         */
+        void send(@NonNull Entry entry, @NonNull Result result);
+    }
+
+    interface Result {
+
+        /**
+         * @param done true if the key was created, so it should not be sent again.
+         *             False if the request failed and should be retried later.
+         */
+        void onSent(boolean done);
+
+        /**
+         * The server rejected the key, so sending it again won't help.
+         */
+        void onRejected();
+    }
+
+    static final class Entry {
+
+        final String mKey;
+        final String mFallback;
+        final String mComment;
+        final String mCanonicalKey;
+
+        Entry(String key, String fallback, String comment) {
+            mKey = key;
+            mFallback = fallback;
+            mComment = comment;
+            mCanonicalKey = LCTranslationPack.canonicalKey(key);
+        }
+    }
+
+    private static final String PREFS_OUTBOX_SPACE = "prefs_outbox_space";
+    private static final String PREFS_REPORTED_SPACE = "prefs_outbox_reported_space";
+    private static final String PREFS_REJECTED_SPACE = "prefs_outbox_rejected_space";
+
+    /** Separates the fallback and the comment of a persisted entry. */
+    private static final char SEPARATOR = '\u0000';
+
+    private static final long FLUSH_DELAY_MS = 2000;
+    private static final long RETRY_DELAY_MS = 60000;
+    private static final int BATCH_SIZE = 10;
+
+    /** How long a rejected key is not sent again */
+    private static final long REJECTED_MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+
+    private final Sender mSender;
+    private final SharedPreferences mSPPending;
+    private final SharedPreferences mSPReported;
+    private final SharedPreferences mSPRejected;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** Canonical key to entry */
+    private final Map<String, Entry> mPending = new LinkedHashMap<>();
+    private final Set<String> mInFlight = new HashSet<>();
+    private final Set<String> mReported = new HashSet<>();
+
+    /** Canonical key to the time it was rejected */
+    private final Map<String, Long> mRejected = new HashMap<>();
+
+    private boolean mFlushScheduled;
+    private boolean mBatchFailed;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    LCMissingKeyOutbox(@NonNull Context context, @NonNull Sender sender) {
+        mSender = sender;
+        mSPPending = context.getSharedPreferences(PREFS_OUTBOX_SPACE, MODE_PRIVATE);
+        mSPReported = context.getSharedPreferences(PREFS_REPORTED_SPACE, MODE_PRIVATE);
+        mSPRejected = context.getSharedPreferences(PREFS_REJECTED_SPACE, MODE_PRIVATE);
+
+        mReported.addAll(mSPReported.getAll().keySet());
+        restoreRejected();
+
+        for (final Map.Entry<String, ?> persisted : mSPPending.getAll().entrySet()) {
+            final Object value = persisted.getValue();
+            if (value instanceof String) {
+                final String key = persisted.getKey();
+                final String fields = (String) value;
+                final int separator = fields.indexOf(SEPARATOR);
+                final Entry entry = separator >= 0
+                        ? new Entry(key, fields.substring(0, separator), fields.substring(separator + 1))
+                        : new Entry(key, fields, "");
+
+                mPending.put(entry.mCanonicalKey, entry);
+            }
+        }
+
+        if (!mPending.isEmpty()) {
+            Logger.d("Missing key outbox restored %d keys", mPending.size());
+            scheduleFlush(FLUSH_DELAY_MS);
+        }
+    }
+
+    /**
+     * Queue a missing key to be reported, unless it is already queued, in flight, reported or rejected.
+     */
+    void add(@NonNull String key, String fallback, String comment) {
+        final String canonical = LCTranslationPack.canonicalKey(key);
+
+        synchronized (this) {
+            if (mPending.containsKey(canonical) || mInFlight.contains(canonical) || mReported.contains(canonical) || isRejected(canonical)) {
+                return;
+            }
+
+            final Entry entry = new Entry(key, fallback != null ? fallback : "", comment != null ? comment : "");
+            mPending.put(entry.mCanonicalKey, entry);
+
+            mSPPending.edit()
+                    .putString(key, entry.mFallback + SEPARATOR + entry.mComment)
+                    .apply();
+
+            // Otherwise the key goes with the next batch, once the current one has finished
+            if (mInFlight.isEmpty()) {
+                scheduleFlush(FLUSH_DELAY_MS);
+            }
+        }
+    }
+
+    /**
+     * Forget which keys have been reported. Call this once the active language has been downloaded in full, since it includes the created keys.
+     * Rejected keys are not forgotten until they expire.
+     */
+    synchronized void clearReported() {
+        if (!mReported.isEmpty()) {
+            mReported.clear();
+            mSPReported.edit()
+                    .clear()
+                    .apply();
+        }
+    }
+
+    /**
+     * Restore the rejected keys, and drop the ones that have expired, or were persisted without a time.
+     */
+    private void restoreRejected() {
+        final long now = System.currentTimeMillis();
+        SharedPreferences.Editor expired = null;
+
+        for (final Map.Entry<String, ?> persisted : mSPRejected.getAll().entrySet()) {
+            final Object value = persisted.getValue();
+            if (value instanceof Long && now - (Long) value < REJECTED_MAX_AGE_MS) {
+                mRejected.put(persisted.getKey(), (Long) value);
+
+            } else {
+                if (expired == null) {
+                    expired = mSPRejected.edit();
+                }
+                expired.remove(persisted.getKey());
+            }
+        }
+
+        if (expired != null) {
+            expired.apply();
+        }
+    }
+
+    /**
+     * @return true if the key was rejected, and the rejection hasn't expired yet
+     */
+    private boolean isRejected(String canonical) {
+        final Long rejected = mRejected.get(canonical);
+        if (rejected == null) {
+            return false;
+        }
+
+        if (System.currentTimeMillis() - rejected < REJECTED_MAX_AGE_MS) {
+            return true;
+        }
+
+        mRejected.remove(canonical);
+        mSPRejected.edit()
+                .remove(canonical)
+                .apply();
+        return false;
+    }
+
+    private void scheduleFlush(long delay) {
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(mFlush, delay);
+        }
+    }
+
+    private void flush() {
+        final List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+
+        synchronized (this) {
+            mFlushScheduled = false;
+            mBatchFailed = false;
+
+            final Iterator<Entry> iterator = mPending.values().iterator();
+            while (iterator.hasNext() && batch.size() < BATCH_SIZE) {
+                final Entry entry = iterator.next();
+                batch.add(entry);
+                mInFlight.add(entry.mCanonicalKey);
+                iterator.remove();
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            Logger.d("Reporting %d missing keys", batch.size());
+        }
+
+        for (final Entry entry : batch) {
+            mSender.send(entry, new Result() {
+                @Override
+                public void onSent(boolean done) {
+                    onResult(entry, done, false);
+                }
+
+                @Override
+                public void onRejected() {
+                    onResult(entry, true, true);
+                }
+            });
+        }
+    }
+
+    private synchronized void onResult(Entry entry, boolean done, boolean rejected) {
+        mInFlight.remove(entry.mCanonicalKey);
+
+        if (done) {
+            mSPPending.edit()
+                    .remove(entry.mKey)
+                    .apply();
+
+            if (rejected) {
+                final long now = System.currentTimeMillis();
+                mRejected.put(entry.mCanonicalKey, now);
+                mSPRejected.edit()
+                        .putLong(entry.mCanonicalKey, now)
+                        .apply();
+
+            } else {
+                mReported.add(entry.mCanonicalKey);
+                mSPReported.edit()
+                        .putBoolean(entry.mCanonicalKey, true)
+                        .apply();
+            }
+
+        } else {
+            // It's still persisted, so just put it back in line
+            mBatchFailed = true;
+            mPending.put(entry.mCanonicalKey, entry);
+        }
+
+        // The next batch waits for the current one, and backs off if it failed
+        if (mInFlight.isEmpty() && !mPending.isEmpty()) {
+            scheduleFlush(mBatchFailed ? RETRY_DELAY_MS : FLUSH_DELAY_MS);
+        }
+    }
+}
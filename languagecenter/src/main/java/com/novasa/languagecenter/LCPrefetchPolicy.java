@@ -0,0 +1,214 @@
+package com.novasa.languagecenter;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.PowerManager;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Decides which languages other than the active language are downloaded in the background, and when.
+ * <p>
+ * Candidates are an explicit list of languages, and the languages used within a max age.
+ * Prefetching only happens while the app is in the background, so it never competes with what the user is doing,
+ * on unmetered networks, and only while the device is charging or has plenty of battery and is not saving power.
+ */
+final class LCPrefetchPolicy {
+
+    /**
+     * Notified on the main thread when the app moves between the foreground and the background.
+     */
+    interface Listener {
+
+        void onBackground();
+
+        void onForeground();
+    }
+
+    /** Below this battery level we only prefetch while charging */
+    private static final float MIN_BATTERY_LEVEL = 0.5f;
+
+    private final Context mContext;
+
+    private final Set<String> mLanguages = new LinkedHashSet<>();
+    private long mRecentMaxAgeMs;
+
+    /** Started activities. The app is in the background while there are none. Only used on the main thread. */
+    private int mStarted;
+
+    /**
+     * Set once an activity has been started or stopped. Until then we can't tell if the app is in the foreground,
+     * e.g. if the context is not an application, so it is assumed to be, and nothing is prefetched.
+     */
+    private boolean mTracking;
+
+    @Nullable
+    private Listener mListener;
+
+    LCPrefetchPolicy(@NonNull Context context) {
+        mContext = context.getApplicationContext();
+
+        if (mContext instanceof Application) {
+            ((Application) mContext).registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+                @Override
+                public void onActivityStarted(Activity activity) {
+                    mTracking = true;
+                    if (mStarted++ == 0 && mListener != null) {
+                        mListener.onForeground();
+                    }
+                }
+
+                @Override
+                public void onActivityStopped(Activity activity) {
+                    mTracking = true;
+
+                    // An activity may have been started before we were created
+                    mStarted = Math.max(0, mStarted - 1);
+                    if (mStarted == 0 && !activity.isChangingConfigurations() && mListener != null) {
+                        mListener.onBackground();
+                    }
+                }
+
+                @Override
+                public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+                }
+
+                @Override
+                public void onActivityResumed(Activity activity) {
+                }
+
+                @Override
+                public void onActivityPaused(Activity activity) {
+                }
+
+                @Override
+                public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+                }
+
+                @Override
+                public void onActivityDestroyed(Activity activity) {
+                }
+            });
+        }
+    }
+
+    void setListener(@Nullable Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @return true if no activity of the app is started. Only call on the main thread.
+     */
+    boolean isInBackground() {
+        return mTracking && mStarted == 0;
+    }
+
+    synchronized void setLanguages(@NonNull String... languages) {
+        mLanguages.clear();
+        for (final String language : languages) {
+            mLanguages.add(language.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * @param maxAgeMs prefetch languages that have been used within this time. 0 to disable.
+     */
+    synchronized void setRecentLanguages(long maxAgeMs) {
+        mRecentMaxAgeMs = Math.max(0, maxAgeMs);
+    }
+
+    synchronized boolean isEnabled() {
+        return !mLanguages.isEmpty() || mRecentMaxAgeMs > 0;
+    }
+
+    /**
+     * @return the language codes to prefetch, in lower case, in order of priority
+     */
+    synchronized List<String> getCandidates(@NonNull LCTranslationsDB db) {
+        final Set<String> candidates = new LinkedHashSet<>(mLanguages);
+
+        if (mRecentMaxAgeMs > 0) {
+            for (final String language : db.getLanguagesUsedSince(System.currentTimeMillis() - mRecentMaxAgeMs)) {
+                candidates.add(language.toLowerCase(Locale.ROOT));
+            }
+        }
+
+        return new ArrayList<>(candidates);
+    }
+
+    /**
+     * @return true if the app is in the background, and the device is in a state where background downloads are cheap. Only call on the main thread.
+     */
+    boolean canPrefetch() {
+        if (!isInBackground()) {
+            Logger.d("Prefetch: app in foreground");
+            return false;
+        }
+
+        if (!hasUnmeteredNetwork()) {
+            Logger.d("Prefetch: no unmetered network");
+            return false;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            final PowerManager pm = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+            if (pm != null && pm.isPowerSaveMode()) {
+                Logger.d("Prefetch: power save mode");
+                return false;
+            }
+        }
+
+        // Battery changes are sticky, so this just reads the last state without registering anything
+        final Intent battery = mContext.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) {
+            return true;
+        }
+
+        if (battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0) {
+            return true;
+        }
+
+        final int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        final int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        if (level < 0 || scale <= 0 || (float) level / scale < MIN_BATTERY_LEVEL) {
+            Logger.d("Prefetch: battery low and not charging");
+            return false;
+        }
+
+        return true;
+    }
+
+    private boolean hasUnmeteredNetwork() {
+        final ConnectivityManager cm = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) {
+            return false;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            final Network network = cm.getActiveNetwork();
+            final NetworkCapabilities capabilities = network != null ? cm.getNetworkCapabilities(network) : null;
+            return capabilities != null
+                    && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED)
+                    && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+        }
+
+        // Without a network, the request fails, and prefetching stops until the app goes to the background again
+        return !cm.isActiveNetworkMetered();
+    }
+}
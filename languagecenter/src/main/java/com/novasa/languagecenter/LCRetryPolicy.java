@@ -0,0 +1,123 @@
+package com.novasa.languagecenter;
+
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import java.util.Date;
+import java.util.Random;
+
+import okhttp3.Headers;
+
+/**
+ * Retry timing for LanguageCenter requests, shared by all calls.
+ * <p>
+ * Retries back off exponentially with full jitter, so devices that failed at the same moment don't retry at the same moment,
+ * and a Retry-After header from the server is honoured.
+ * <p>
+ * All calls share a retry budget: every retryable failure spends a token and every success earns back a fraction of one.
+ * While less than half the budget is left, failed calls are not retried at all, so a failing backend isn't hit with a storm of retries.
+ * The budget also refills with time, since after an outage there may be no successes to earn it back with.
+ */
+final class LCRetryPolicy {
+
+    private static final float BUDGET = 10f;
+    private static final float BUDGET_REFILL = 0.2f;
+
+    /** Time to earn back a token without any calls */
+    private static final long BUDGET_REFILL_INTERVAL_MS = 30000;
+
+    private final Random mRandom = new Random();
+
+    private int mMaxRetries = 5;
+    private long mBaseDelayMs = 1000;
+    private long mMaxDelayMs = 60000;
+
+    private float mTokens = BUDGET;
+    private long mRefillTime;
+
+    synchronized void configure(int maxRetries, long baseDelayMs, long maxDelayMs) {
+        mMaxRetries = Math.max(0, maxRetries);
+        mBaseDelayMs = Math.max(1, baseDelayMs);
+        mMaxDelayMs = Math.max(mBaseDelayMs, maxDelayMs);
+    }
+
+    synchronized void onSuccess() {
+        mTokens = Math.min(BUDGET, mTokens + BUDGET_REFILL);
+    }
+
+    synchronized void onFailure() {
+        refill(SystemClock.elapsedRealtime());
+        mTokens = Math.max(0, mTokens - 1);
+    }
+
+    /**
+     * Earn back the tokens for the time since the last refill.
+     *
+     * @param now the elapsed realtime
+     */
+    synchronized void refill(long now) {
+        if (now > mRefillTime) {
+            mTokens = Math.min(BUDGET, mTokens + (float) (now - mRefillTime) / BUDGET_REFILL_INTERVAL_MS);
+            mRefillTime = now;
+        }
+    }
+
+    /**
+     * @param retry        the number of retries made so far
+     * @param retryAfterMs the delay the server asked for, or -1
+     * @return the delay before the next retry, or -1 if the call should not be retried
+     */
+    synchronized long getRetryDelay(int retry, long retryAfterMs) {
+        if (retry >= mMaxRetries) {
+            return -1;
+        }
+
+        refill(SystemClock.elapsedRealtime());
+        if (mTokens <= BUDGET / 2) {
+            Logger.w("Retry budget exhausted, not retrying");
+            return -1;
+        }
+
+        if (retryAfterMs > mMaxDelayMs) {
+            // Don't hold on to a call for longer than we would ever back off. The next update will try again.
+            return -1;
+        }
+
+        return Math.max(retryAfterMs, getBackoff(retry));
+    }
+
+    /**
+     * @param attempt the number of consecutive failures
+     * @return a random delay between 0 and the exponential backoff for the attempt
+     */
+    synchronized long getBackoff(int attempt) {
+        final long ceiling = mBaseDelayMs << Math.min(attempt, 20);
+        final long backoff = Math.min(mMaxDelayMs, ceiling > 0 ? ceiling : mMaxDelayMs);
+        return (long) (mRandom.nextDouble() * backoff);
+    }
+
+    /**
+     * Parse a Retry-After header, which is either a number of seconds or an HTTP date.
+     *
+     * @return the delay in milliseconds, or -1 if there is no valid header
+     */
+    static long parseRetryAfter(@Nullable Headers headers) {
+        if (headers == null) {
+            return -1;
+        }
+
+        final String value = headers.get("Retry-After");
+        if (value == null) {
+            return -1;
+        }
+
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+
+        } catch (NumberFormatException e) {
+            final Date date = headers.getDate("Retry-After");
+            return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : -1;
+        }
+    }
+}
@@ -1,15 +1,31 @@
 package com.novasa.languagecenter;
 
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
 import androidx.annotation.NonNull;
 
 import com.novasa.languagecenter.interfaces.UpdateCallback;
 import com.novasa.languagecenter.model.Language;
 import com.novasa.languagecenter.model.Translation;
+import com.novasa.languagecenter.model.TranslationBatch;
+import com.novasa.languagecenter.service.LCCacheStats;
 import com.novasa.languagecenter.service.LCRestClient;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
 
+import okhttp3.OkHttpClient;
 import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.Callback;
@@ -19,19 +35,45 @@ import retrofit2.Response;
 /**
  * Created by andersp on 03/10/16.
  */
-final class LCService {
+final class LCService implements LCMissingKeyOutbox.Sender {
 
     private abstract class APICallback<TData> implements Callback<TData> {
 
-        private final static int RETRIES = 5;
         private int mRetry = 0;
 
+        /** The first call. Retries are clones, so cancelling this cancels any pending retry, and drops the result of one in flight. */
+        private Call<TData> mOriginal;
+
+        Response<TData> mResponse;
+
         @Override
-        public final void onResponse(Call<TData> call, Response<TData> response) {
+        public final void onResponse(final Call<TData> call, final Response<TData> response) {
+            if (mOriginal == null) {
+                mOriginal = call;
+            }
+
+            if (mOriginal.isCanceled()) {
+                // A retry that was already in flight when the call was cancelled
+                Logger.d("API Call cancelled");
+
+                final TData result = response.body();
+                if (result != null) {
+                    onCancelled(result);
+                }
+                return;
+            }
+
+            mResponse = response;
+
             final TData result = response.body();
             if (response.isSuccessful() && result != null) {
+                mRetryPolicy.onSuccess();
                 onSuccess(result);
 
+            } else if (response.code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                mRetryPolicy.onSuccess();
+                onNotModified();
+
             } else {
                 final ResponseBody error = response.errorBody();
 
@@ -42,60 +84,360 @@ final class LCService {
                     Logger.e(e);
                 }
 
-                onFailure();
+                if (!isRetryable(response.code())) {
+                    // The server answered, and retrying won't change its answer, so this doesn't spend retry budget
+                    onFailure();
+
+                } else {
+                    mRetryPolicy.onFailure();
+
+                    if (!retry(call, LCRetryPolicy.parseRetryAfter(response.headers()))) {
+                        onFailure();
+                    }
+                }
             }
         }
 
         @Override
-        public final void onFailure(Call<TData> call, Throwable t) {
-            if (call.isCanceled()) {
+        public final void onFailure(final Call<TData> call, final Throwable t) {
+            if (mOriginal == null) {
+                mOriginal = call;
+            }
+
+            if (call.isCanceled() || mOriginal.isCanceled()) {
                 Logger.d("API Call cancelled");
 
-            } else if (mRetry < RETRIES) {
-                mRetry++;
-                Logger.d("Call failed. Retrying... (%d)", mRetry);
+            } else {
+                mRetryPolicy.onFailure();
 
-                final Call<TData> clone = call.clone();
-                clone.enqueue(this);
+                if (!retry(call, -1)) {
+                    Logger.e(t, "API Failure");
+                    onFailure();
+                }
+            }
+        }
 
-            } else {
-                Logger.e(t, "API Failure");
-                onFailure();
+        /**
+         * @return true if a retry was scheduled
+         */
+        private boolean retry(final Call<TData> call, final long retryAfterMs) {
+            final long delay = mRetryPolicy.getRetryDelay(mRetry, retryAfterMs);
+            if (delay < 0) {
+                return false;
             }
+
+            mRetry++;
+            Logger.d("Call failed. Retrying in %d ms... (%d)", delay, mRetry);
+
+            mHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if (mOriginal.isCanceled()) {
+                        Logger.d("API Call cancelled");
+                        return;
+                    }
+
+                    call.clone().enqueue(APICallback.this);
+                }
+            }, delay);
+
+            return true;
         }
 
         abstract void onSuccess(@NonNull TData data);
         void onFailure() { }
+
+        /** Called with the result of a call that was cancelled while the response was being read, e.g. to release it. */
+        void onCancelled(@NonNull TData data) { }
+
+        /** Called if a conditional request was answered with 304 Not Modified. Requests revalidated by the HTTP cache end up in {@link #onSuccess(Object)}. */
+        void onNotModified() {
+            onFailure();
+        }
     }
 
-    private final LCRestClient mClient;
+    private static final int HTTP_REQUEST_TIMEOUT = 408;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
 
-    LCService(final String url, final String username, final String password) {
-        mClient = new LCRestClient(url, username, password);
+    /**
+     * Timeouts, rate limiting and server errors are worth retrying. Other errors will just fail again.
+     */
+    private static boolean isRetryable(int code) {
+        return code == HTTP_REQUEST_TIMEOUT || code == HTTP_TOO_MANY_REQUESTS || code >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+    }
+
+    private final File mCacheDirectory;
+    private final String mUrl;
+    private final String mUsername;
+    private final String mPassword;
+
+    /** Created on first use, so the HTTP client can be configured first */
+    private LCRestClient mClient;
+    private OkHttpClient mHttpClient;
+    private boolean mDebugMode;
+
+    private final LCMissingKeyOutbox mOutbox;
+    private final LCPrefetchPolicy mPrefetchPolicy;
+    private final LCRetryPolicy mRetryPolicy = new LCRetryPolicy();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    LCService(final Context context, final String url, final String username, final String password) {
+        mCacheDirectory = context.getCacheDir();
+        mUrl = url;
+        mUsername = username;
+        mPassword = password;
+        mOutbox = new LCMissingKeyOutbox(context, this);
+        mPrefetchPolicy = new LCPrefetchPolicy(context);
+        mPrefetchPolicy.setListener(new LCPrefetchPolicy.Listener() {
+            @Override
+            public void onBackground() {
+                if (mPrefetchPending) {
+                    mHandler.removeCallbacks(mPrefetch);
+                    mHandler.postDelayed(mPrefetch, PREFETCH_DELAY_MS);
+                }
+            }
+
+            @Override
+            public void onForeground() {
+                mHandler.removeCallbacks(mPrefetch);
+
+                if (mPrefetchCall != null) {
+                    // Yield to the app, and pick up where we left off the next time it goes to the background
+                    Logger.d("Language Center paused prefetching");
+                    mPrefetchCall.cancel();
+                    mPrefetchCall = null;
+                    mPrefetchPending = true;
+                }
+            }
+        });
+    }
+
+    private LCRestClient getClient() {
+        if (mClient == null) {
+            mClient = new LCRestClient(mUrl, mUsername, mPassword, mCacheDirectory, mHttpClient);
+            mClient.setDebugMode(mDebugMode);
+        }
+
+        return mClient;
+    }
+
+    /**
+     * @return false if the client has already been created, in which case it's too late to change it
+     */
+    boolean setHttpClient(OkHttpClient client) {
+        if (mClient != null) {
+            return false;
+        }
+
+        mHttpClient = client;
+        return true;
+    }
+
+    LCCacheStats getCacheStats() {
+        return getClient().getCacheStats();
+    }
+
+    LCSpeculationStats getSpeculationStats() {
+        return mSpeculationStats;
     }
 
     void setDebugMode(boolean debugMode) {
-        mClient.setDebugMode(debugMode);
+        mDebugMode = debugMode;
+
+        if (mClient != null) {
+            mClient.setDebugMode(debugMode);
+        }
+    }
+
+    void setRetryPolicy(int maxRetries, long baseDelayMs, long maxDelayMs) {
+        mRetryPolicy.configure(maxRetries, baseDelayMs, maxDelayMs);
+    }
+
+    /**
+     * @param failures the number of consecutive failed updates
+     * @return how long to wait before updating again
+     */
+    long getUpdateRetryDelay(int failures) {
+        return mRetryPolicy.getBackoff(failures);
+    }
+
+    private boolean mIncrementalUpdates = true;
+
+    void setIncrementalUpdates(boolean incrementalUpdates) {
+        mIncrementalUpdates = incrementalUpdates;
+    }
+
+    LCPrefetchPolicy getPrefetchPolicy() {
+        return mPrefetchPolicy;
+    }
+
+    /** Translations in the first page of paginated downloads. 0 to download all translations in a single response. */
+    private int mPageSize = 0;
+
+    /**
+     * Every page rewrites the language's pack, so later pages of a download grow, up to this many times the page size,
+     * which keeps the number of pages, and with it the cost of writing, down for large downloads.
+     */
+    private static final int MAX_PAGE_GROWTH = 8;
+
+    void setPageSize(int pageSize) {
+        mPageSize = Math.max(0, pageSize);
+    }
+
+    private boolean mSpeculativeDownloads = false;
+
+    void setSpeculativeDownloads(boolean speculativeDownloads) {
+        mSpeculativeDownloads = speculativeDownloads;
     }
 
     private Call<?> mUpdateCall;
 
+    /** The update in flight, if any. Concurrent updates of the same language join it. */
+    private Update mUpdate;
+
+    /** The last language list, and when we got it */
+    private List<Language> mLanguages;
+    private long mLanguagesTime;
+
+    /** Translations requested alongside the language list, before we know if they are needed. */
+    private TranslationsCallback mSpeculation;
+    private final LCSpeculationStats mSpeculationStats = new LCSpeculationStats();
+
     private void cancelUpdateCall() {
         if (mUpdateCall != null) {
             mUpdateCall.cancel();
             mUpdateCall = null;
         }
+
+        discardSpeculation();
     }
 
     void downloadTranslations(final String language, final UpdateCallback callback) {
 
-        cancelUpdateCall();
+        final Update current = mUpdate;
+        if (current != null && current.mLanguage.equalsIgnoreCase(language)) {
+            Logger.d("Language Center is already updating language: %s. Joining the update in flight.", language);
+            current.addCallback(callback);
+            return;
+        }
+
+        final Update update = new Update(language);
+        update.addCallback(callback);
+
+        // Updates take priority over prefetching, which is rescheduled once the update has finished
+        cancelPrefetch();
+
+        if (current != null) {
+            // The result of the current update is no longer wanted, but its callbacks still get the result of the new one
+            Logger.d("Language Center update of %s superseded by %s", current.mLanguage, language);
+            cancelUpdateCall();
+            update.addCallbacks(current);
+        }
+
+        mUpdate = update;
+
+        final LCTranslationsDB db = LanguageCenter.getInstance().getTranslationDB();
+
+        // Bundled snapshots must be seeded before we check timestamps
+        db.runWhenSeeded(new Runnable() {
+            @Override
+            public void run() {
+                if (update == mUpdate) {
+                    downloadSeededTranslations(language, update);
+                }
+            }
+        });
+    }
+
+    /**
+     * A single update in flight. Delivers its result to every caller that requested it, unless it has been superseded.
+     */
+    private final class Update implements UpdateCallback {
+
+        private final String mLanguage;
+        private final List<UpdateCallback> mCallbacks = new ArrayList<>(1);
+
+        /** True if the language list was downloaded by this update, as opposed to taken from a prefetch */
+        private boolean mChecked;
+
+        Update(String language) {
+            mLanguage = language;
+        }
+
+        void addCallback(UpdateCallback callback) {
+            // The same callback should only get the result once, no matter how many times it asked for it
+            for (final UpdateCallback c : mCallbacks) {
+                if (c == callback) {
+                    return;
+                }
+            }
+
+            mCallbacks.add(callback);
+        }
+
+        void addCallbacks(Update update) {
+            for (final UpdateCallback c : update.mCallbacks) {
+                addCallback(c);
+            }
+        }
+
+        boolean isCurrent() {
+            return this == mUpdate;
+        }
+
+        @Override
+        public void onUpdated(String language, boolean success) {
+            if (!isCurrent()) {
+                Logger.d("Language Center ignored result of superseded update: %s", language);
+                return;
+            }
+
+            mUpdate = null;
+
+            if (success && mChecked) {
+                LanguageCenter.getInstance().getTranslationDB().setLanguageCheckedTime(language);
+            }
+
+            for (final UpdateCallback callback : mCallbacks) {
+                callback.onUpdated(language, success);
+            }
+
+            if (success) {
+                schedulePrefetch();
+            }
+        }
+    }
+
+    private void downloadSeededTranslations(final String language, final Update callback) {
+
+        // Translations are stored per language, so if we have used the language before we can switch to it right away,
+        // while we check the timestamp.
+        final LCTranslationsDB db = LanguageCenter.getInstance().getTranslationDB();
+        final String resolvedLanguage = db.getResolvedLanguage(language);
+        db.activateLanguage(resolvedLanguage);
+
+        final Language prefetched = takePrefetched(language);
+        if (prefetched != null) {
+            // We just checked this language, and downloaded its translations in the background, so there is no need to ask again
+            Logger.d("Language Center language was prefetched: %s", prefetched.getCodename());
+            db.setResolvedLanguage(language, prefetched.getCodename());
+            updateLanguage(prefetched, callback);
+            return;
+        }
+
+        if (mSpeculativeDownloads) {
+            // Most likely the language list will resolve to the same language as last time
+            speculate(resolvedLanguage);
+        }
 
         getLanguages(new APICallback<List<Language>>() {
             @Override
             void onSuccess(@NonNull List<Language> languages) {
 
                 mUpdateCall = null;
+                mLanguages = languages;
+                mLanguagesTime = SystemClock.elapsedRealtime();
+                callback.mChecked = true;
 
                 Language fallbackLanguage = null;
                 Language preferredLanguage = null;
@@ -119,18 +461,15 @@ final class LCService {
                     actualLanguage = fallbackLanguage;
                 }
 
-                // Reset any other language timestamps
-                for (final Language l : languages) {
-                    if (actualLanguage != l) {
-                        LanguageCenter.getInstance().getTranslationDB().resetLanguagePersistedTime(l);
-                    }
-                }
-
                 if (actualLanguage != null) {
+                    final LCTranslationsDB db = LanguageCenter.getInstance().getTranslationDB();
+                    db.setResolvedLanguage(language, actualLanguage.getCodename());
+
                     updateLanguage(actualLanguage, callback);
 
                 } else {
                     Logger.e("No fallback language found");
+                    discardSpeculation();
                     callback.onUpdated(language, false);
                 }
             }
@@ -138,73 +477,631 @@ final class LCService {
             @Override
             void onFailure() {
                 mUpdateCall = null;
+                discardSpeculation();
                 callback.onUpdated(language, false);
             }
         });
     }
 
     private void getLanguages(final APICallback<List<Language>> callback) {
-        final Call<List<Language>> call = mClient.getApiService().getLanguages(LCValues.PARAM_TIMESTAMP);
+        final Call<List<Language>> call = getClient().getApiService().getLanguages(LCValues.PARAM_TIMESTAMP);
         call.enqueue(callback);
         mUpdateCall = call;
     }
 
-    private void updateLanguage(final Language language, final UpdateCallback callback) {
+    private void updateLanguage(final Language language, final Update callback) {
         final long persistedTimeStamp = LanguageCenter.getInstance().getTranslationDB().getLanguagePersistedTime(language.getCodename());
         final long currentTimeStamp = language.getTimestamp();
 
+        final boolean hasTranslations = LanguageCenter.getInstance().getTranslationDB().hasTranslations(language.getCodename());
+
         // we check if we need to update the translation DB.
-        if (persistedTimeStamp < currentTimeStamp) {
+        if (persistedTimeStamp < currentTimeStamp || !hasTranslations) {
             Logger.d("Language Center is updating language: %s (%s) (timestamp: %d < %d)", language.getCodename(), language.getName(), persistedTimeStamp, currentTimeStamp);
-            getTranslations(language, callback);
+
+            // If we have a complete set of translations from a known time, we only need what has changed since
+            final long since = mIncrementalUpdates && hasTranslations ? persistedTimeStamp : 0;
+
+            final TranslationsCallback speculation = takeSpeculation(language.getCodename(), since, hasTranslations);
+            if (speculation != null) {
+                speculation.resolve(language, callback);
+
+            } else {
+                getTranslations(language.getCodename(), since, hasTranslations).resolve(language, callback);
+            }
 
         } else {
             Logger.d("Language Center language is up-to-date: %s (%s)", language.getCodename(), language.getName());
+            discardSpeculation();
+            LanguageCenter.getInstance().getTranslationDB().activateLanguage(language.getCodename());
             callback.onUpdated(language.getCodename(), true);
         }
     }
 
-    private void getTranslations(final Language language, final UpdateCallback callback) {
+    /**
+     * Request the translations of a language before the language list has confirmed that they are needed.
+     */
+    private void speculate(final String code) {
+        final LCTranslationsDB db = LanguageCenter.getInstance().getTranslationDB();
+        final boolean hasTranslations = db.hasTranslations(code);
+        final long since = mIncrementalUpdates && hasTranslations ? db.getLanguagePersistedTime(code) : 0;
+
+        mSpeculationStats.recordAttempt();
+        mSpeculation = getTranslations(code, since, hasTranslations);
+    }
+
+    /**
+     * @return the speculative request, if it matches the request we need, otherwise null
+     */
+    private TranslationsCallback takeSpeculation(final String code, final long since, final boolean hasTranslations) {
+        final TranslationsCallback speculation = mSpeculation;
+        if (speculation == null) {
+            return null;
+        }
+
+        if (!speculation.matches(code, since, hasTranslations)) {
+            discardSpeculation();
+            return null;
+        }
+
+        mSpeculation = null;
+        mSpeculationStats.recordHit();
+
+        Logger.d("Language Center used speculative download: %s (%s)", code, mSpeculationStats);
+        return speculation;
+    }
+
+    private void discardSpeculation() {
+        if (mSpeculation != null) {
+            Logger.d("Language Center discarded speculative download: %s (%s)", mSpeculation.mCode, mSpeculationStats);
+            mSpeculation.cancel();
+            mSpeculation = null;
+        }
+    }
+
+    /**
+     * @return the language from the last language list, if its translations were prefetched, and the list is still fresh
+     */
+    private Language takePrefetched(final String code) {
+        if (mLanguages == null || !mPrefetched.remove(code.toLowerCase(Locale.ROOT))) {
+            return null;
+        }
+
+        if (SystemClock.elapsedRealtime() - mLanguagesTime > PREFETCH_MAX_AGE_MS) {
+            return null;
+        }
+
+        for (final Language language : mLanguages) {
+            if (language.getCodename().equalsIgnoreCase(code)) {
+                return language;
+            }
+        }
+
+        return null;
+    }
+
+    /** How long the app must have been in the background before prefetching */
+    private static final long PREFETCH_DELAY_MS = 30000;
+
+    /** How long a prefetched language can be switched to without checking the language list again */
+    private static final long PREFETCH_MAX_AGE_MS = 15 * 60 * 1000;
+
+    /** Codes of the languages that are up to date with the last language list, in lower case */
+    private final Set<String> mPrefetched = new HashSet<>();
+    private TranslationsCallback mPrefetchCall;
+
+    /** Set when languages may need prefetching, which happens the next time the app has been in the background for a while */
+    private boolean mPrefetchPending;
+
+    private final Runnable mPrefetch = new Runnable() {
+        @Override
+        public void run() {
+            prefetch();
+        }
+    };
+
+    private void schedulePrefetch() {
+        if (mPrefetchPolicy.isEnabled()) {
+            mPrefetchPending = true;
+
+            if (mPrefetchPolicy.isInBackground()) {
+                mHandler.removeCallbacks(mPrefetch);
+                mHandler.postDelayed(mPrefetch, PREFETCH_DELAY_MS);
+            }
+        }
+    }
+
+    private void cancelPrefetch() {
+        mHandler.removeCallbacks(mPrefetch);
+
+        if (mPrefetchCall != null) {
+            mPrefetchCall.cancel();
+            mPrefetchCall = null;
+        }
+    }
+
+    /**
+     * Download the translations of the languages chosen by the prefetch policy, one at a time, using the timestamps of the last language list.
+     */
+    private void prefetch() {
+        if (mUpdate != null || mLanguages == null || !mPrefetchPolicy.canPrefetch()) {
+            return;
+        }
+
+        mPrefetchPending = false;
+
+        final LCTranslationsDB db = LanguageCenter.getInstance().getTranslationDB();
+        final String activeLanguage = db.getActiveLanguage();
+        final Queue<Language> queue = new LinkedList<>();
+
+        for (final String code : mPrefetchPolicy.getCandidates(db)) {
+            for (final Language language : mLanguages) {
+                if (!language.getCodename().equalsIgnoreCase(code) || language.getCodename().equals(activeLanguage)) {
+                    continue;
+                }
+
+                if (db.hasTranslations(language.getCodename()) && db.getLanguagePersistedTime(language.getCodename()) >= language.getTimestamp()) {
+                    mPrefetched.add(code);
+
+                } else {
+                    queue.add(language);
+                }
+            }
+        }
+
+        Logger.d("Language Center is prefetching %d languages", queue.size());
+        prefetchNext(queue);
+    }
+
+    private void prefetchNext(final Queue<Language> queue) {
+        mPrefetchCall = null;
+
+        final Language language = queue.poll();
+        if (language == null || mUpdate != null) {
+            return;
+        }
+
+        // Conditions may have changed since the last download
+        if (!mPrefetchPolicy.canPrefetch()) {
+            mPrefetchPending = true;
+            return;
+        }
 
         final String code = language.getCodename();
+        final LCTranslationsDB db = LanguageCenter.getInstance().getTranslationDB();
+        final boolean hasTranslations = db.hasTranslations(code);
+        final long since = mIncrementalUpdates && hasTranslations ? db.getLanguagePersistedTime(code) : 0;
 
-        final Call<List<Translation>> call = mClient.getApiService().getTranslations(LCValues.PARAM_PLATFORM, code, LCValues.PARAM_INDEXING, LCValues.PARAM_TIMESTAMP);
-        call.enqueue(new APICallback<List<Translation>>() {
+        Logger.d("Language Center is prefetching language: %s (%s)", code, language.getName());
 
+        mPrefetchCall = getTranslations(code, since, hasTranslations);
+        mPrefetchCall.prefetch(language, new UpdateCallback() {
             @Override
-            void onSuccess(@NonNull List<Translation> translations) {
+            public void onUpdated(String languageCode, boolean success) {
+                if (!success) {
+                    // Most likely the network, so stop until the app goes to the background again
+                    mPrefetchCall = null;
+                    mPrefetchPending = true;
+                    return;
+                }
+
+                mPrefetched.add(code.toLowerCase(Locale.ROOT));
+                prefetchNext(queue);
+            }
+        });
+    }
+
+    /**
+     * Start downloading translations. The result is handled once {@link TranslationsCallback#resolve(Language, Update)} has been called.
+     *
+     * @param since           if larger than 0, only translations changed since this timestamp are downloaded, including deleted translations
+     * @param hasTranslations if the language has persisted translations, in which case the request is made conditional on the validators of the last response
+     */
+    private TranslationsCallback getTranslations(final String code, final long since, final boolean hasTranslations) {
+
+        final LCTranslationsDB db = LanguageCenter.getInstance().getTranslationDB();
+
+        if (since > 0) {
+            Logger.d("Language Center is downloading changes since %d: %s", since, code);
+        }
+
+        final boolean paginated = mPageSize > 0;
+
+        // Without translations on disk, a 304 would leave us with nothing, so only validate what we have.
+        // The validators are those of the last full download, so they only apply to a full download.
+        // Pages are separate responses, so paginated downloads have no validators.
+        final boolean full = since == 0 && !paginated;
+        final String etag = hasTranslations && full ? db.getETag(code) : null;
+        final String lastModified = hasTranslations && full ? db.getLastModified(code) : null;
+        final long contentLength = full ? db.getContentLength(code) : -1;
+
+        // Pick up an interrupted download where it left off
+        final String cursor = paginated ? db.getSyncCursor(code, since) : null;
+        final long target = cursor != null ? db.getSyncTarget(code) : 0;
+        final int count = cursor != null ? db.getSyncCount(code) : 0;
+
+        if (cursor != null) {
+            Logger.d("Language Center is resuming download of %s after %d translations", code, count);
+        }
+
+        final Call<TranslationBatch> call = getClient().getApiService().getTranslations(LCValues.PARAM_PLATFORM, code, LCValues.PARAM_INDEXING, LCValues.PARAM_TIMESTAMP,
+                since > 0 ? since : null, etag, lastModified, contentLength > 0 ? new LCCacheStats.ExpectedSize(contentLength) : null,
+                cursor, paginated ? mPageSize : null);
+
+        final TranslationsCallback callback = new TranslationsCallback(call, code, since, hasTranslations, target, count, paginated ? mPageSize : 0);
+        call.enqueue(callback);
+        return callback;
+    }
 
+    /**
+     * @param pageSize the size of the first page
+     * @param limit    the limit of the previous page
+     * @return the limit of the next page: double the previous page, up to the max growth of the page size
+     */
+    static int nextPageLimit(int pageSize, int limit) {
+        return (int) Math.min(Math.min(2L * Math.max(limit, pageSize), (long) pageSize * MAX_PAGE_GROWTH), Integer.MAX_VALUE);
+    }
+
+    private static int parseTotal(String total) {
+        if (total == null) {
+            return -1;
+        }
+
+        try {
+            return Integer.parseInt(total.trim());
+
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Merges downloaded translations into the language.
+     * The response may arrive before the language list has been checked, in which case it is held until the request is resolved.
+     */
+    private final class TranslationsCallback extends APICallback<TranslationBatch> {
+
+        private final Call<TranslationBatch> mCall;
+        private final String mCode;
+        private final long mSince;
+        private final boolean mHasTranslations;
+
+        /** The timestamp of the language a paginated download was started for, or 0 if this is the first page */
+        private final long mTarget;
+
+        /** The number of translations downloaded by the previous pages */
+        private final int mCount;
+
+        /** The max number of translations of this page, or 0 if the download is not paginated */
+        private final int mLimit;
+
+        private Language mLanguage;
+        private UpdateCallback mCallback;
+        private Runnable mResult;
+
+        /** The translations of a response that hasn't been delivered yet */
+        private TranslationBatch mBatch;
+
+        /** The update the translations are for, or null if they are prefetched */
+        private Update mFlight;
+
+        TranslationsCallback(Call<TranslationBatch> call, String code, long since, boolean hasTranslations, long target, int count, int limit) {
+            mCall = call;
+            mCode = code;
+            mSince = since;
+            mHasTranslations = hasTranslations;
+            mTarget = target;
+            mCount = count;
+            mLimit = limit;
+        }
+
+        boolean matches(String code, long since, boolean hasTranslations) {
+            return mCode.equals(code) && mSince == since && mHasTranslations == hasTranslations;
+        }
+
+        /**
+         * The language list has confirmed that the translations are needed. Until the response arrives, the request is the update's call,
+         * so it is cancelled along with the update.
+         */
+        void resolve(Language language, Update callback) {
+            mFlight = callback;
+
+            if (mResult == null) {
+                mUpdateCall = mCall;
+            }
+
+            deliverTo(language, callback);
+        }
+
+        /**
+         * Persist the translations without activating them.
+         */
+        void prefetch(Language language, UpdateCallback callback) {
+            mFlight = null;
+            deliverTo(language, callback);
+        }
+
+        /**
+         * Cancel the request, and release the translations if they were downloaded, but not delivered.
+         */
+        void cancel() {
+            mCall.cancel();
+
+            if (mResult != null) {
+                mResult = null;
+
+                if (mBatch != null) {
+                    mBatch.close();
+                    mBatch = null;
+                }
+            }
+        }
+
+        private void deliverTo(Language language, UpdateCallback callback) {
+            mLanguage = language;
+            mCallback = callback;
+
+            if (mResult != null) {
+                final Runnable result = mResult;
+                mResult = null;
+                result.run();
+            }
+        }
+
+        private void deliver(Runnable result) {
+            if (mCall == mUpdateCall) {
                 mUpdateCall = null;
+            }
 
-                // if there are any new or updated translations we persist them and the timestamp
-                if (!translations.isEmpty()) {
-                    LanguageCenter.getInstance().getTranslationDB().persistTranslationsList(translations);
+            if (mLanguage != null) {
+                result.run();
 
-                } else {
-                    Logger.d("Language Center had no translations to persist.");
+            } else {
+                mResult = result;
+            }
+        }
+
+        @Override
+        void onSuccess(@NonNull final TranslationBatch translations) {
+            final String etag = mResponse.headers().get("ETag");
+            final String lastModified = mResponse.headers().get("Last-Modified");
+            final long contentLength = LCRestClient.getNetworkContentLength(mResponse);
+            final String nextCursor = mResponse.headers().get(LCValues.HEADER_NEXT_CURSOR);
+            final int total = parseTotal(mResponse.headers().get(LCValues.HEADER_TOTAL_COUNT));
+
+            mBatch = translations;
+
+            deliver(new Runnable() {
+                @Override
+                public void run() {
+                    mBatch = null;
+                    persist(translations, etag, lastModified, contentLength, nextCursor, total);
                 }
+            });
+        }
+
+        @Override
+        void onCancelled(@NonNull TranslationBatch translations) {
+            translations.close();
+        }
+
+        /**
+         * @param nextCursor the cursor of the next page of a paginated download, or null if this is the last page
+         * @param total      the total number of translations of a paginated download, or -1 if unknown
+         */
+        private void persist(final TranslationBatch translations, final String etag, final String lastModified, final long contentLength,
+                             final String nextCursor, final int total) {
+            final LCTranslationsDB db = LanguageCenter.getInstance().getTranslationDB();
+            final Language language = mLanguage;
+            final UpdateCallback callback = mCallback;
+
+            // A paginated download is persisted as the language was when it started, so the next update also gets anything that changed in the meantime
+            final long target = mTarget > 0 ? mTarget : language.getTimestamp();
+            final int count = mCount + translations.size();
+
+            if (translations.isEmpty() && nextCursor == null) {
+                Logger.d("Language Center had no translations to persist.");
 
-                callback.onUpdated(code, true);
+                if (isIncremental()) {
+                    translations.close();
 
-                if (language.getTimestamp() > LanguageCenter.getInstance().getTranslationDB().getLanguagePersistedTime(code)){
-                    LanguageCenter.getInstance().getTranslationDB().setLanguagePersistTime(language);
+                    if (!db.hasTranslations(mCode)) {
+                        downloadInFull();
+                        return;
+                    }
+
+                    // Nothing (else) changed, so the pack we have is up to date
+                    activate(db);
+                    complete(db, target, etag, lastModified, contentLength);
+                    callback.onUpdated(mCode, true);
+                    return;
                 }
+
+                // we persist even if there are no translations, so the language pack exists
             }
 
-            @Override
-            void onFailure() {
-                mUpdateCall = null;
+            db.persistTranslationBatch(mCode, translations, isIncremental(), new UpdateCallback() {
+                @Override
+                public void onUpdated(String languageCode, boolean success) {
+                    if (!success) {
+                        if (isIncremental() && !db.hasTranslations(mCode)) {
+                            downloadInFull();
+
+                        } else {
+                            callback.onUpdated(mCode, false);
+                        }
+                        return;
+                    }
+
+                    // Partial translations are better than none, so they are used right away
+                    activate(db);
+
+                    if (nextCursor != null) {
+                        // The page is durable at this point, so it's safe to move the cursor past it
+                        db.setSyncProgress(mCode, mSince, nextCursor, target, count);
 
-                Logger.e("Failed to get translations for language: %s", language);
-                callback.onUpdated(code, false);
+                        if (mFlight != null) {
+                            LanguageCenter.getInstance().onProgress(mCode, count, total);
+                        }
+
+                        nextPage(nextCursor, target, count);
+                        return;
+                    }
+
+                    // The translations are durable at this point, so it's safe to persist the timestamp
+                    complete(db, target, etag, lastModified, contentLength);
+                    callback.onUpdated(mCode, true);
+                }
+            });
+        }
+
+        private void complete(final LCTranslationsDB db, final long target, final String etag, final String lastModified, final long contentLength) {
+            if (target > db.getLanguagePersistedTime(mCode)) {
+                db.setLanguagePersistTime(mCode, target);
             }
-        });
 
-        mUpdateCall = call;
+            db.clearSyncProgress(mCode);
+
+            // A delta or a page doesn't describe the full translations, so its validators would not match the next full download
+            if (mSince == 0 && mTarget == 0 && mLimit == 0) {
+                db.setValidators(mCode, etag, lastModified, contentLength);
+            }
+
+            // Any keys we reported have been created by now, and are part of a full download of the language they were missing from
+            if (mSince == 0 && mFlight != null && mFlight.isCurrent()) {
+                mOutbox.clearReported();
+            }
+        }
+
+        /**
+         * @return true if the translations are changes to the persisted translations: a delta, or a later page of a paginated download
+         */
+        private boolean isIncremental() {
+            return mSince > 0 || mTarget > 0;
+        }
+
+        /**
+         * @return false if the download has been cancelled or superseded
+         */
+        private boolean isWanted() {
+            return mFlight != null ? mFlight.isCurrent() : mPrefetchCall == this;
+        }
+
+        /**
+         * The persisted translations these changes were for are gone, e.g. because the pack was found damaged and discarded,
+         * so download the language in full instead of recording the changes as the complete language.
+         */
+        private void downloadInFull() {
+            if (!isWanted()) {
+                mCallback.onUpdated(mCode, false);
+                return;
+            }
+
+            Logger.w("Language Center has no translations to merge the changes of %s into, downloading it in full", mCode);
+
+            final TranslationsCallback full = getTranslations(mCode, 0, false);
+
+            if (mFlight != null) {
+                full.resolve(mLanguage, mFlight);
+
+            } else {
+                mPrefetchCall = full;
+                full.prefetch(mLanguage, mCallback);
+            }
+        }
+
+        /**
+         * Download the next page of a paginated download, unless the download has been cancelled or superseded.
+         * In that case the next download of the language resumes from the cursor.
+         */
+        private void nextPage(final String cursor, final long target, final int count) {
+            if (!isWanted()) {
+                Logger.d("Language Center paused download of %s after %d translations", mCode, count);
+                return;
+            }
+
+            final int limit = mPageSize > 0 ? nextPageLimit(mPageSize, mLimit) : 0;
+
+            final Call<TranslationBatch> call = getClient().getApiService().getTranslations(LCValues.PARAM_PLATFORM, mCode, LCValues.PARAM_INDEXING, LCValues.PARAM_TIMESTAMP,
+                    mSince > 0 ? mSince : null, null, null, null, cursor, limit > 0 ? limit : null);
+
+            final TranslationsCallback next = new TranslationsCallback(call, mCode, mSince, true, target, count, limit);
+
+            if (mFlight != null) {
+                next.resolve(mLanguage, mFlight);
+
+            } else {
+                mPrefetchCall = next;
+                next.prefetch(mLanguage, mCallback);
+            }
+
+            call.enqueue(next);
+        }
+
+        /**
+         * Use the translations for lookups, unless they were prefetched, or another language was requested in the meantime.
+         */
+        private void activate(LCTranslationsDB db) {
+            if (mFlight != null && mFlight.isCurrent()) {
+                db.activateLanguage(mCode);
+            }
+        }
+
+        @Override
+        void onNotModified() {
+            final String etag = mResponse.headers().get("ETag");
+            final String lastModified = mResponse.headers().get("Last-Modified");
+
+            deliver(new Runnable() {
+                @Override
+                public void run() {
+                    // The translations we have are current, so there is nothing to parse or persist
+                    Logger.d("Language Center translations not modified: %s. HTTP cache: %s", mCode, getClient().getCacheStats());
+
+                    final LCTranslationsDB db = LanguageCenter.getInstance().getTranslationDB();
+                    if (!db.hasTranslations(mCode)) {
+                        // The translations that were validated have been discarded since
+                        downloadInFull();
+                        return;
+                    }
+
+                    activate(db);
+                    db.setLanguagePersistTime(mLanguage);
+
+                    // The server may have sent new validators for the same translations
+                    if (mSince == 0 && (etag != null || lastModified != null)) {
+                        db.setValidators(mCode, etag != null ? etag : db.getETag(mCode), lastModified != null ? lastModified : db.getLastModified(mCode),
+                                db.getContentLength(mCode));
+                    }
+
+                    mCallback.onUpdated(mCode, true);
+                }
+            });
+        }
+
+        @Override
+        void onFailure() {
+            deliver(new Runnable() {
+                @Override
+                public void run() {
+                    Logger.e("Failed to get translations for language: %s", mLanguage);
+                    mCallback.onUpdated(mCode, false);
+                }
+            });
+        }
     }
 
+    /**
+     * Report a missing translation, so it can be created on the server. Reports are deduplicated and sent in batches by the outbox.
+     */
     void createTranslation(final String key, final String fallback, final String comment) {
+        mOutbox.add(key, fallback, comment);
+    }
 
+    @Override
+    public void send(@NonNull final LCMissingKeyOutbox.Entry entry, @NonNull final LCMissingKeyOutbox.Result result) {
+
+        final String key = entry.mKey;
         final String category;
         final String actualKey;
         final String[] split = key.split("\\.", 2);
@@ -217,22 +1114,37 @@ final class LCService {
             actualKey = key;
         }
 
-        final Call<Translation> call = mClient.getApiService().createTranslation(LCValues.PARAM_PLATFORM, category, actualKey, fallback, comment);
+        final Call<Translation> call = getClient().getApiService().createTranslation(LCValues.PARAM_PLATFORM, category, actualKey, entry.mFallback, entry.mComment);
         call.enqueue(new Callback<Translation>() {
             @Override
-            public void onResponse(@NonNull Call<Translation> call, @NonNull Response<Translation> response) {
-
+            public void onResponse(@NonNull final Call<Translation> call, @NonNull final Response<Translation> response) {
                 final Translation t = response.body();
 
                 if (t != null) {
+                    mRetryPolicy.onSuccess();
                     LanguageCenter.getInstance().getTranslationDB().persistTranslation(t);
                     Logger.d("Language Center successfully created translation %s.", t.getKey());
+                    result.onSent(true);
+
+                } else {
+                    Logger.e("Language Center failed to create translation %s (%d).", key, response.code());
+
+                    // Server errors are retried by the outbox
+                    if (isRetryable(response.code())) {
+                        mRetryPolicy.onFailure();
+                        result.onSent(false);
+
+                    } else {
+                        result.onRejected();
+                    }
                 }
             }
 
             @Override
-            public void onFailure(@NonNull Call<Translation> call, @NonNull Throwable t) {
+            public void onFailure(@NonNull final Call<Translation> call, @NonNull final Throwable t) {
                 Logger.e(t, "Language Center failed to create translation %s.", key);
+                mRetryPolicy.onFailure();
+                result.onSent(false);
             }
         });
     }
@@ -0,0 +1,48 @@
+package com.novasa.languagecenter;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts how many speculative downloads were made, see {@link LanguageCenter#setSpeculativeDownloads(boolean)},
+ * and how many of them were used, saving a round trip.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class LCSpeculationStats {
+
+    private final AtomicInteger mAttempts = new AtomicInteger();
+    private final AtomicInteger mHits = new AtomicInteger();
+
+    LCSpeculationStats() {
+    }
+
+    /**
+     * @return the number of speculative downloads that were started
+     */
+    public int getAttemptCount() {
+        return mAttempts.get();
+    }
+
+    /**
+     * @return the number of speculative downloads that the language list confirmed, and that were used
+     */
+    public int getHitCount() {
+        return mHits.get();
+    }
+
+    void recordAttempt() {
+        mAttempts.incrementAndGet();
+    }
+
+    void recordHit() {
+        mHits.incrementAndGet();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "attempts: %d, hits: %d", getAttemptCount(), getHitCount());
+    }
+}
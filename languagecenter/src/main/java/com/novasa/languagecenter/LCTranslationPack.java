@@ -0,0 +1,1053 @@
+package com.novasa.languagecenter;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.novasa.languagecenter.model.TranslationBatch;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Immutable, memory mapped translation pack for a single language.
+ * <p>
+ * Keys are canonicalized with {@link #canonicalKey(String)} when the pack is written, and indexed with a minimal perfect hash function
+ * (compress, hash and displace), so a lookup is a single probe with no collision chains. The index stores a 16 bit fingerprint and a bit packed
+ * ordinal per key, a bit packed displacement per bucket of {@value #BUCKET_SIZE} keys, and a 32 bit offset per block,
+ * so it costs 18 + log2(n) bits per key, plus a quarter of the widest displacement: about 31 bits per key for 1000 keys, and about 39 for 100000 keys.
+ * The fingerprint lets about 1 in 65536 missing keys through to a block decode, which then rejects them.
+ * If no such function is found for a key set, which can happen for small sets, the pack is written without buckets,
+ * and a lookup binary searches the first keys of the blocks instead, so writing a pack never fails because of its keys.
+ * <p>
+ * Entries are sorted by key and front coded in blocks of {@value #BLOCK_SIZE}: each key only stores the suffix that differs from the previous key.
+ * Keys like "category.screen.element" share long prefixes, so this keeps the pack, and the pages of it that are resident, small.
+ * A lookup checks the stored hash first, and then compares the requested key char by char while decoding its block, without allocating.
+ * Values are UTF-8 encoded, and decoded when they are asked for. The last {@value #VALUE_CACHE_SIZE} or so decoded values are kept,
+ * so the heap used by a pack stays small however many of its translations are shown, and the rest of it is only paged in from the file.
+ * <p>
+ * A pack is written from sources that are already sorted by key, e.g. the runs of a {@link TranslationBatch} and the pack it replaces,
+ * which are merged while the entries are streamed to disk. The index comes after the entries, since it can only be built once every key is known,
+ * and only the hashes of the keys are kept in memory until then.
+ * <p>
+ * Packs are written to a temporary file, synced to disk and then renamed into place, so a pack file is always either complete or absent.
+ * The header records its own checksum, the file length and a checksum of the body, and the footer repeats the header checksum,
+ * so {@link #open(String, File)} can reject a partial or mismatched file in constant time. {@link #verify()} checks the full body.
+ * <p>
+ * A pack is never modified once it has been opened, so it is safe to read from any thread without locking.
+ * Lookups check every offset and length they read from the body, so a damaged body that passed {@link #open(String, File)}
+ * makes a lookup miss instead of throwing, and marks the pack as {@link #isDamaged() damaged}.
+ * Every opened pack gets a new version, which can be used to invalidate anything derived from the translations.
+ * <p>
+ * File layout (big endian):
+ * <pre>
+ * int   magic
+ * int   version
+ * int   entry count
+ * int   bucket count, 0 if the pack is searched by key
+ * int   hash seed
+ * int   index offset
+ * int   displacement bits
+ * int   file length
+ * int   body checksum (CRC32)
+ * int   header checksum (CRC32 of the fields above)
+ * block: entries
+ * entry: char shared prefix length, char suffix length, suffix chars, int value length, value bytes
+ * int[] block offsets
+ * bits  bucket displacements, bit packed and padded. Only with buckets.
+ * char[] entry fingerprints, by hash position. Only with buckets.
+ * bits  entry ordinals in key order, by hash position, bit packed and padded. Only with buckets.
+ * int   header checksum
+ * int   footer magic
+ * </pre>
+ */
+final class LCTranslationPack {
+
+    private static final int MAGIC = 0x4C43504B; // "LCPK"
+    private static final int FOOTER_MAGIC = 0x4C43454E; // "LCEN"
+    private static final int VERSION = 7;
+    private static final int HEADER_SIZE = 40;
+    private static final int HEADER_CHECKSUM_OFFSET = 36;
+    private static final int FOOTER_SIZE = 8;
+
+    /** Average number of keys per bucket */
+    private static final int BUCKET_SIZE = 4;
+
+    /** Number of front coded keys per block. A lookup decodes at most this many keys. */
+    private static final int BLOCK_SIZE = 16;
+    private static final int BLOCK_SHIFT = 4;
+
+    private static final int MAX_KEY_LENGTH = 0xffff;
+
+    static final String TMP_EXTENSION = ".tmp";
+
+    private static final int MAX_SEEDS = 16;
+    private static final int MAX_DISPLACEMENTS = 1 << 24;
+
+    /** Bytes after each bit packed array, so the last value can be read with a single long read */
+    private static final int PACKED_PADDING = 8;
+
+    /** Number of decoded values kept per pack. Values are decoded again once they are evicted. */
+    static final int VALUE_CACHE_SIZE = 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final AtomicInteger sVersion = new AtomicInteger();
+
+    private final String mLanguage;
+    private final ByteBuffer mBuffer;
+    private final int mCount;
+    private final int mBucketCount;
+    private final int mSeed;
+    private final int mBodyChecksum;
+
+    /** The entries end where the index starts */
+    private final int mIndexOffset;
+    private final int mDisplacementsOffset;
+    private final int mDisplacementBits;
+    private final int mFingerprintsOffset;
+    private final int mOrdinalsOffset;
+    private final int mOrdinalBits;
+    private final int mVersion;
+
+    /** Set when a lookup finds an offset or length outside of the body */
+    private volatile boolean mDamaged;
+
+    /** Set once the body is known to match its checksum */
+    private volatile boolean mVerified;
+
+    /**
+     * A decoded value. Immutable, so a value read from the cache by another thread is always complete.
+     */
+    private static final class Value {
+
+        final int mOrdinal;
+        final String mValue;
+
+        Value(int ordinal, String value) {
+            mOrdinal = ordinal;
+            mValue = value;
+        }
+    }
+
+    /**
+     * Recently decoded values, direct mapped by ordinal, so the heap used by a pack is bounded however many of its values are used.
+     * Racing writes are harmless, since a slot only ever holds a complete value of the ordinal it names.
+     */
+    private final Value[] mValues;
+
+    private LCTranslationPack(String language, ByteBuffer buffer, int count, int bucketCount, int seed, int indexOffset, int displacementBits, int bodyChecksum) {
+        mLanguage = language;
+        mBuffer = buffer;
+        mCount = count;
+        mBucketCount = bucketCount;
+        mSeed = seed;
+        mBodyChecksum = bodyChecksum;
+        mIndexOffset = indexOffset;
+        mDisplacementsOffset = indexOffset + 4 * blockCount(count);
+        mDisplacementBits = displacementBits;
+        mFingerprintsOffset = mDisplacementsOffset + packedSize(bucketCount, displacementBits);
+        mOrdinalsOffset = mFingerprintsOffset + 2 * count;
+        mOrdinalBits = bitsFor(count - 1);
+        mValues = new Value[count >= VALUE_CACHE_SIZE ? VALUE_CACHE_SIZE : Integer.highestOneBit(Math.max(1, count - 1)) << 1];
+        mVersion = sVersion.incrementAndGet();
+    }
+
+    /**
+     * The canonical form of a translation key. Keys are matched case insensitively.
+     */
+    @NonNull
+    static String canonicalKey(@NonNull String key) {
+        return TranslationBatch.canonicalKey(key);
+    }
+
+    /**
+     * A 64 bit hash of the canonical form of a key, computed in one pass without allocating.
+     * It doesn't depend on the seed of the index, so the keys only have to be hashed once while the index is built.
+     */
+    static long hash(@NonNull String key) {
+        int h1 = 0x811c9dc5;
+        int h2 = 0x050c5d1f;
+        for (int i = 0, c = key.length(); i < c; i++) {
+            final char ch = Character.toLowerCase(key.charAt(i));
+            h1 = (h1 ^ ch) * 0x01000193;
+            h2 = (h2 ^ ch) * 0x5bd1e995;
+        }
+        return ((long) mix(h1) << 32) | (mix(h2) & 0xffffffffL);
+    }
+
+    /**
+     * Two independent 32 bit hashes of a key for a seed of the index.
+     * The high half picks the key's bucket, and the low half picks its position candidates.
+     */
+    static long hash(long hash, int seed) {
+        long h = hash + seed * 0x9e3779b97f4a7c15L;
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * A 16 bit fingerprint of a key, which rejects most keys that are not in the pack without decoding a block.
+     * It is taken from the seedless hash, so it doesn't depend on the bits that placed the key.
+     */
+    private static char fingerprint(long hash) {
+        return (char) hash;
+    }
+
+    private static int bucket(long hash, int bucketCount) {
+        return (int) ((hash >>> 32) % bucketCount);
+    }
+
+    private static int position(long hash, int displacement, int count) {
+        final long f1 = (hash & 0xffffffffL) % count;
+        final long f2 = ((hash & 0xffffffffL) / count) % count;
+        final long d0 = displacement / count;
+        final long d1 = displacement % count;
+        return (int) ((f1 + d0 * f2 + d1) % count);
+    }
+
+    /**
+     * Map an existing pack file into memory. The header and footer are validated, which doesn't depend on the size of the pack.
+     *
+     * @param language the language code of the pack
+     * @param file     the pack file
+     * @return the opened pack
+     * @throws IOException if the file could not be read or is not a valid pack
+     */
+    @NonNull
+    static LCTranslationPack open(String language, File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long size = channel.size();
+            if (size < HEADER_SIZE + FOOTER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Invalid translation pack size: " + size);
+            }
+
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Invalid translation pack header: " + file);
+            }
+
+            final byte[] header = new byte[HEADER_CHECKSUM_OFFSET];
+            buffer.duplicate().get(header);
+            final int headerChecksum = checksum(header);
+
+            if (buffer.getInt(HEADER_CHECKSUM_OFFSET) != headerChecksum || buffer.getInt(28) != size) {
+                throw new IOException("Translation pack header checksum mismatch: " + file);
+            }
+
+            if (buffer.getInt((int) size - 8) != headerChecksum || buffer.getInt((int) size - 4) != FOOTER_MAGIC) {
+                throw new IOException("Translation pack footer mismatch: " + file);
+            }
+
+            final int count = buffer.getInt(8);
+            final int bucketCount = buffer.getInt(12);
+            final int seed = buffer.getInt(16);
+            final int indexOffset = buffer.getInt(20);
+            final int displacementBits = buffer.getInt(24);
+            if (count < 0 || bucketCount < 0 || bucketCount > count || indexOffset < HEADER_SIZE || displacementBits < 0 || displacementBits > 32
+                    || indexOffset + indexSize(count, bucketCount, displacementBits) + FOOTER_SIZE != size) {
+                throw new IOException("Invalid translation pack index: " + count + " / " + bucketCount);
+            }
+
+            return new LCTranslationPack(language, buffer, count, bucketCount, seed, indexOffset, displacementBits, buffer.getInt(32));
+
+        } finally {
+            // The mapping stays valid after the channel is closed
+            raf.close();
+        }
+    }
+
+    private static long indexSize(int count, int bucketCount, int displacementBits) {
+        return 4L * blockCount(count) + (bucketCount > 0 ? packedSize(bucketCount, displacementBits) + 2L * count + packedSize(count, bitsFor(count - 1)) : 0);
+    }
+
+    /**
+     * @return the size in bytes of an array of bit packed values, including padding
+     */
+    private static int packedSize(int count, int bits) {
+        return (int) (((long) count * bits + 7) / 8) + PACKED_PADDING;
+    }
+
+    /**
+     * @return the number of bits needed to store values from 0 up to the given value
+     */
+    private static int bitsFor(int max) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(max));
+    }
+
+    /**
+     * Writes values of a fixed number of bits back to back, most significant bit first.
+     */
+    private static final class BitWriter {
+
+        private final DataOutputStream mOut;
+        private final int mBits;
+        private long mPending;
+        private int mPendingBits;
+
+        BitWriter(DataOutputStream out, int bits) {
+            mOut = out;
+            mBits = bits;
+        }
+
+        void write(int value) throws IOException {
+            mPending = (mPending << mBits) | (value & 0xffffffffL);
+            mPendingBits += mBits;
+
+            while (mPendingBits >= 8) {
+                mPendingBits -= 8;
+                mOut.write((int) (mPending >>> mPendingBits));
+            }
+            mPending &= (1L << mPendingBits) - 1;
+        }
+
+        void finish() throws IOException {
+            if (mPendingBits > 0) {
+                mOut.write((int) (mPending << (8 - mPendingBits)));
+            }
+            mOut.write(new byte[PACKED_PADDING]);
+        }
+    }
+
+    /**
+     * A source of a pack that is being written, and its place in the merge.
+     */
+    private static final class Source {
+
+        final TranslationBatch.Reader mReader;
+
+        /** Sources added later win */
+        final int mPrecedence;
+
+        Source(TranslationBatch.Reader reader, int precedence) {
+            mReader = reader;
+            mPrecedence = precedence;
+        }
+    }
+
+    private static final Comparator<Source> SOURCE_ORDER = new Comparator<Source>() {
+        @Override
+        public int compare(Source a, Source b) {
+            final int order = a.mReader.getKey().compareTo(b.mReader.getKey());
+            return order != 0 ? order : b.mPrecedence - a.mPrecedence;
+        }
+    };
+
+    /**
+     * Write a new pack file, merging sources that are sorted by key. The pack is written to a temporary file and synced to disk first,
+     * and then renamed into place, so packs that are already mapped are never modified, and a crash never leaves a partial pack behind.
+     * <p>
+     * Entries are streamed to disk as they are merged, so memory use only grows with the hashes of the keys, not with the translations.
+     *
+     * @param file    the pack file
+     * @param sources the translations to write, each sorted by canonical key. For a key in more than one source, the last source wins,
+     *                and a null value removes the key. The sources are read, but not closed.
+     * @throws IOException if the pack could not be written, or a source could not be read
+     */
+    static void write(File file, List<? extends TranslationBatch.Reader> sources) throws IOException {
+        final PriorityQueue<Source> queue = new PriorityQueue<>(Math.max(1, sources.size()), SOURCE_ORDER);
+        for (int i = 0, c = sources.size(); i < c; i++) {
+            final TranslationBatch.Reader reader = sources.get(i);
+            if (reader.next()) {
+                queue.add(new Source(reader, i));
+            }
+        }
+
+        final File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create directory: " + dir);
+        }
+
+        final File tmp = new File(file.getPath() + TMP_EXTENSION);
+        final FileOutputStream fileOut = new FileOutputStream(tmp);
+        final CRC32 crc = new CRC32();
+        final DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(fileOut), crc));
+        boolean written = false;
+        try {
+            // The header is written last, once the index and the body checksum are known
+            out.write(new byte[HEADER_SIZE]);
+            crc.reset();
+
+            long[] hashes = new long[1024];
+            int[] blockOffsets = new int[64];
+            long offset = HEADER_SIZE;
+            int count = 0;
+            String previous = "";
+            String last = null;
+
+            while (!queue.isEmpty()) {
+                final Source source = queue.poll();
+                final String key = source.mReader.getKey();
+                final byte[] value = source.mReader.getValue();
+
+                // The same key in other sources is overridden
+                advance(queue, source);
+                while (!queue.isEmpty() && queue.peek().mReader.getKey().equals(key)) {
+                    advance(queue, queue.poll());
+                }
+
+                if (value == null) {
+                    continue;
+                }
+
+                if (key.length() > MAX_KEY_LENGTH) {
+                    throw new IOException("Translation key too long: " + key.length());
+                }
+
+                if (last != null && key.compareTo(last) <= 0) {
+                    throw new IOException("Translation pack source is not sorted: " + key);
+                }
+
+                if ((count & (BLOCK_SIZE - 1)) == 0) {
+                    if (count >>> BLOCK_SHIFT == blockOffsets.length) {
+                        blockOffsets = Arrays.copyOf(blockOffsets, 2 * blockOffsets.length);
+                    }
+                    blockOffsets[count >>> BLOCK_SHIFT] = (int) offset;
+                    previous = "";
+                }
+
+                if (count == hashes.length) {
+                    hashes = Arrays.copyOf(hashes, 2 * hashes.length);
+                }
+                hashes[count] = hash(key);
+
+                final int shared = sharedPrefix(previous, key);
+                out.writeChar(shared);
+                out.writeChar(key.length() - shared);
+                out.writeChars(key.substring(shared));
+                out.writeInt(value.length);
+                out.write(value);
+
+                offset += 8 + 2 * (key.length() - shared) + value.length;
+                if (offset + indexSize(count + 1, count + 1, 32) + FOOTER_SIZE > Integer.MAX_VALUE) {
+                    throw new IOException("Translation pack too large: " + file);
+                }
+
+                previous = key;
+                last = key;
+                count++;
+            }
+
+            final int indexOffset = (int) offset;
+            final Index index = Index.build(hashes, count);
+
+            for (int b = 0, c = blockCount(count); b < c; b++) {
+                out.writeInt(blockOffsets[b]);
+            }
+
+            final int bucketCount = index.mDisplacements.length;
+            int displacementBits = 0;
+
+            if (bucketCount > 0) {
+                int max = 0;
+                for (final int displacement : index.mDisplacements) {
+                    max = Math.max(max, displacement);
+                }
+                displacementBits = bitsFor(max);
+
+                final BitWriter displacements = new BitWriter(out, displacementBits);
+                for (final int displacement : index.mDisplacements) {
+                    displacements.write(displacement);
+                }
+                displacements.finish();
+
+                // Entries by position
+                final int[] ordinals = new int[count];
+                for (int i = 0; i < count; i++) {
+                    ordinals[index.mPositions[i]] = i;
+                }
+
+                for (final int ordinal : ordinals) {
+                    out.writeChar(fingerprint(hashes[ordinal]));
+                }
+
+                final BitWriter packed = new BitWriter(out, bitsFor(count - 1));
+                for (final int ordinal : ordinals) {
+                    packed.write(ordinal);
+                }
+                packed.finish();
+            }
+
+            final int length = (int) (indexOffset + indexSize(count, bucketCount, displacementBits) + FOOTER_SIZE);
+            final int bodyChecksum = (int) crc.getValue();
+
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putInt(count)
+                    .putInt(bucketCount)
+                    .putInt(index.mSeed)
+                    .putInt(indexOffset)
+                    .putInt(displacementBits)
+                    .putInt(length)
+                    .putInt(bodyChecksum);
+
+            final int headerChecksum = checksum(Arrays.copyOf(header.array(), HEADER_CHECKSUM_OFFSET));
+            header.putInt(headerChecksum);
+
+            out.writeInt(headerChecksum);
+            out.writeInt(FOOTER_MAGIC);
+            out.flush();
+
+            header.flip();
+            fileOut.getChannel().write(header, 0);
+            fileOut.getFD().sync();
+            written = true;
+
+        } finally {
+            out.close();
+
+            if (!written) {
+                //noinspection ResultOfMethodCallIgnored
+                tmp.delete();
+            }
+        }
+
+        if (!tmp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            throw new IOException("Could not replace translation pack: " + file);
+        }
+    }
+
+    private static void advance(PriorityQueue<Source> queue, Source source) throws IOException {
+        if (source.mReader.next()) {
+            queue.add(source);
+        }
+    }
+
+    private static int checksum(byte[] bytes) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    private static int blockCount(int count) {
+        return (count + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+    }
+
+    private static int sharedPrefix(String a, String b) {
+        final int c = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < c && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Minimal perfect hash index over the hashes of a set of distinct keys. Only primitive arrays are used, so building it for a large pack
+     * takes about 20 bytes per key.
+     */
+    private static final class Index {
+
+        private final int mSeed;
+        private final int[] mDisplacements;
+
+        /** Position of each key, in key order */
+        private final int[] mPositions;
+
+        private Index(int seed, int[] displacements, int[] positions) {
+            mSeed = seed;
+            mDisplacements = displacements;
+            mPositions = positions;
+        }
+
+        /**
+         * @param hashes the hashes of the keys, see {@link #hash(String)}, in key order
+         * @param count  the number of keys
+         */
+        static Index build(final long[] hashes, final int count) {
+            if (count > 0) {
+                final int bucketCount = (count + BUCKET_SIZE - 1) / BUCKET_SIZE;
+
+                // Keys grouped by bucket: bucket b holds members[starts[b]] up to members[starts[b + 1]]
+                final int[] starts = new int[bucketCount + 1];
+                final int[] members = new int[count];
+                final int[] order = new int[bucketCount];
+                final int[] displacements = new int[bucketCount];
+                final int[] positions = new int[count];
+                final boolean[] taken = new boolean[count];
+
+                for (int seed = 0; seed < MAX_SEEDS; seed++) {
+                    group(hashes, count, seed, starts, members);
+                    sortBySize(starts, order);
+                    Arrays.fill(taken, false);
+
+                    if (place(hashes, seed, starts, members, order, displacements, positions, taken)) {
+                        return new Index(seed, displacements, positions);
+                    }
+
+                    Logger.d("Translation pack index failed with seed %d, retrying", seed);
+                }
+
+                // Without buckets the pack is searched by key
+                Logger.d("Could not build translation pack index for %d keys, falling back to search", count);
+            }
+
+            return new Index(0, new int[0], new int[0]);
+        }
+
+        /**
+         * Group the keys by bucket with a counting sort.
+         */
+        private static void group(long[] hashes, int count, int seed, int[] starts, int[] members) {
+            final int bucketCount = starts.length - 1;
+            Arrays.fill(starts, 0);
+
+            for (int i = 0; i < count; i++) {
+                starts[bucket(hash(hashes[i], seed), bucketCount) + 1]++;
+            }
+
+            for (int b = 0; b < bucketCount; b++) {
+                starts[b + 1] += starts[b];
+            }
+
+            // Fill each bucket from its end, which leaves starts[b] pointing at the start of bucket b
+            for (int b = bucketCount; b > 0; b--) {
+                starts[b] = starts[b - 1];
+            }
+            starts[0] = 0;
+            for (int i = 0; i < count; i++) {
+                final int b = bucket(hash(hashes[i], seed), bucketCount);
+                members[starts[b + 1]++] = i;
+            }
+        }
+
+        /**
+         * Order the buckets by size, largest first, with a counting sort, since buckets are small.
+         */
+        private static void sortBySize(int[] starts, int[] order) {
+            final int bucketCount = order.length;
+
+            int max = 0;
+            for (int b = 0; b < bucketCount; b++) {
+                max = Math.max(max, starts[b + 1] - starts[b]);
+            }
+
+            final int[] bySize = new int[max + 2];
+            for (int b = 0; b < bucketCount; b++) {
+                bySize[max - (starts[b + 1] - starts[b]) + 1]++;
+            }
+            for (int k = 0; k <= max; k++) {
+                bySize[k + 1] += bySize[k];
+            }
+            for (int b = 0; b < bucketCount; b++) {
+                order[bySize[max - (starts[b + 1] - starts[b])]++] = b;
+            }
+        }
+
+        private static boolean place(long[] hashes, int seed, int[] starts, int[] members, int[] order, int[] displacements, int[] positions, boolean[] taken) {
+            final int count = taken.length;
+            final int maxDisplacement = (int) Math.min((long) count * count, MAX_DISPLACEMENTS);
+
+            for (final int b : order) {
+                final int first = starts[b];
+                final int end = starts[b + 1];
+                if (first == end) {
+                    // Buckets are sorted by size, so the rest are empty too
+                    return true;
+                }
+
+                boolean placed = false;
+
+                search:
+                for (int d = 0; d < maxDisplacement; d++) {
+                    for (int k = first; k < end; k++) {
+                        final int position = position(hash(hashes[members[k]], seed), d, count);
+                        if (taken[position]) {
+                            continue search;
+                        }
+
+                        // Keys in the same bucket must not collide with each other either
+                        for (int j = first; j < k; j++) {
+                            if (positions[members[j]] == position) {
+                                continue search;
+                            }
+                        }
+
+                        positions[members[k]] = position;
+                    }
+
+                    displacements[b] = d;
+                    for (int k = first; k < end; k++) {
+                        taken[positions[members[k]]] = true;
+                    }
+                    placed = true;
+                    break;
+                }
+
+                if (!placed) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    String getLanguage() {
+        return mLanguage;
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Look up a translation. The key is matched case insensitively, and nothing is allocated unless the value has to be decoded.
+     *
+     * @param key the translation key
+     * @return the translation, or null if the pack doesn't contain the key
+     */
+    @Nullable
+    String get(String key) {
+        if (mCount == 0) {
+            return null;
+        }
+
+        if (mBucketCount == 0) {
+            return search(key);
+        }
+
+        final long keyHash = hash(key);
+        final long hash = hash(keyHash, mSeed);
+        final int displacement = readPacked(mDisplacementsOffset, bucket(hash, mBucketCount), mDisplacementBits);
+        final int position = position(hash, displacement, mCount);
+
+        if (mBuffer.getChar(mFingerprintsOffset + 2 * position) != fingerprint(keyHash)) {
+            return null;
+        }
+
+        final int ordinal = readPacked(mOrdinalsOffset, position, mOrdinalBits);
+        if (ordinal >= mCount) {
+            return damaged();
+        }
+
+        final int length = key.length();
+
+        // Decode the block up to the entry, tracking how much of the requested key matches the current key
+        int offset = mBuffer.getInt(mIndexOffset + 4 * (ordinal >>> BLOCK_SHIFT));
+        int match = 0;
+        int keyLength = 0;
+
+        for (int k = 0, c = ordinal & (BLOCK_SIZE - 1); k <= c; k++) {
+            if (!inBody(offset, 4)) {
+                return damaged();
+            }
+
+            final int shared = mBuffer.getChar(offset);
+            final int suffix = mBuffer.getChar(offset + 2);
+            final int chars = offset + 4;
+
+            // The suffix, and the value length that follows it
+            if (!inBody(chars, 2 * suffix + 4)) {
+                return damaged();
+            }
+
+            // If the current key shares more than the matched part with the previous key, it differs from the requested key at the same char
+            if (match >= shared) {
+                match = shared;
+                while (match < shared + suffix && match < length
+                        && mBuffer.getChar(chars + 2 * (match - shared)) == Character.toLowerCase(key.charAt(match))) {
+                    match++;
+                }
+            }
+
+            keyLength = shared + suffix;
+            offset = chars + 2 * suffix;
+
+            if (k < c) {
+                // Skip the value
+                final int valueLength = mBuffer.getInt(offset);
+                if (!inBody(offset + 4, valueLength)) {
+                    return damaged();
+                }
+                offset += 4 + valueLength;
+            }
+        }
+
+        if (match == length && keyLength == length) {
+            return getValue(ordinal, offset);
+        }
+
+        return null;
+    }
+
+    /**
+     * Look up a translation in a pack without buckets, by binary searching the first keys of the blocks, and then decoding the block.
+     */
+    @Nullable
+    private String search(String key) {
+        int lo = 0;
+        int hi = blockCount(mCount) - 1;
+
+        // Find the last block that starts with a key that is not greater than the requested key
+        while (lo < hi) {
+            final int mid = (lo + hi + 1) >>> 1;
+            if (compareFirstKey(mid, key) <= 0) {
+                lo = mid;
+
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        final int length = key.length();
+
+        int offset = mBuffer.getInt(mIndexOffset + 4 * lo);
+        int match = 0;
+
+        for (int ordinal = lo << BLOCK_SHIFT, c = Math.min(ordinal + BLOCK_SIZE, mCount); ordinal < c; ordinal++) {
+            if (!inBody(offset, 4)) {
+                return damaged();
+            }
+
+            final int shared = mBuffer.getChar(offset);
+            final int suffix = mBuffer.getChar(offset + 2);
+            final int chars = offset + 4;
+
+            if (!inBody(chars, 2 * suffix + 4)) {
+                return damaged();
+            }
+
+            if (match >= shared) {
+                match = shared;
+                while (match < shared + suffix && match < length
+                        && mBuffer.getChar(chars + 2 * (match - shared)) == Character.toLowerCase(key.charAt(match))) {
+                    match++;
+                }
+            }
+
+            offset = chars + 2 * suffix;
+
+            if (match == length && shared + suffix == length) {
+                return getValue(ordinal, offset);
+            }
+
+            final int valueLength = mBuffer.getInt(offset);
+            if (!inBody(offset + 4, valueLength)) {
+                return damaged();
+            }
+            offset += 4 + valueLength;
+        }
+
+        return null;
+    }
+
+    /**
+     * Compare the first key of a block, which is stored in full, with the canonical form of a key.
+     */
+    private int compareFirstKey(int block, String key) {
+        final int offset = mBuffer.getInt(mIndexOffset + 4 * block);
+        if (!inBody(offset, 4) || !inBody(offset + 4, 2 * mBuffer.getChar(offset + 2))) {
+            // Search on, the block that is decoded in the end is checked again
+            mDamaged = true;
+            return 1;
+        }
+
+        final int suffix = mBuffer.getChar(offset + 2);
+        final int length = key.length();
+
+        for (int i = 0, c = Math.min(suffix, length); i < c; i++) {
+            final int diff = mBuffer.getChar(offset + 4 + 2 * i) - Character.toLowerCase(key.charAt(i));
+            if (diff != 0) {
+                return diff;
+            }
+        }
+
+        return suffix - length;
+    }
+
+    /**
+     * Verify the checksum of the full body of the pack. This reads the entire pack, so it should not be called on the main thread.
+     * Once the pack has been verified, or {@link #setVerified() marked as verified}, this returns true without reading it again.
+     *
+     * @return true if the body matches the checksum recorded when the pack was written
+     */
+    boolean verify() {
+        if (mVerified) {
+            return true;
+        }
+
+        final ByteBuffer body = mBuffer.duplicate();
+        body.position(HEADER_SIZE);
+        body.limit(body.capacity() - FOOTER_SIZE);
+
+        final CRC32 crc = new CRC32();
+        final byte[] chunk = new byte[8192];
+        while (body.hasRemaining()) {
+            final int n = Math.min(chunk.length, body.remaining());
+            body.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+
+        mVerified = (int) crc.getValue() == mBodyChecksum;
+        return mVerified;
+    }
+
+    /**
+     * Skip the checksum of a pack that was just written by this process, so it isn't read back in full.
+     */
+    void setVerified() {
+        mVerified = true;
+    }
+
+    /**
+     * Read the entries of this pack in key order, e.g. to merge them with new translations while a new pack is written.
+     * Values are read from the pack without being decoded.
+     */
+    @NonNull
+    TranslationBatch.Reader read() {
+        return new TranslationBatch.Reader() {
+
+            private final char[] mKey = new char[MAX_KEY_LENGTH];
+            private int mOrdinal = -1;
+            private int mOffset = HEADER_SIZE;
+            private String mCurrentKey;
+            private byte[] mValue;
+
+            @Override
+            public boolean next() throws IOException {
+                if (++mOrdinal >= mCount) {
+                    return false;
+                }
+
+                final int offset = mOffset;
+                if (!inBody(offset, 4)) {
+                    damaged();
+                    throw new IOException("Translation pack entry out of bounds: " + mLanguage + " / " + mOrdinal);
+                }
+
+                final int shared = mBuffer.getChar(offset);
+                final int suffix = mBuffer.getChar(offset + 2);
+                if (shared + suffix > MAX_KEY_LENGTH || !inBody(offset + 4, 2 * suffix + 4)) {
+                    damaged();
+                    throw new IOException("Translation pack key out of bounds: " + mLanguage + " / " + mOrdinal);
+                }
+
+                for (int c = 0; c < suffix; c++) {
+                    mKey[shared + c] = mBuffer.getChar(offset + 4 + 2 * c);
+                }
+                mCurrentKey = new String(mKey, 0, shared + suffix);
+
+                final int valueOffset = offset + 4 + 2 * suffix;
+                final int length = mBuffer.getInt(valueOffset);
+                if (!inBody(valueOffset + 4, length)) {
+                    damaged();
+                    throw new IOException("Translation pack value out of bounds: " + mLanguage + " / " + mOrdinal);
+                }
+
+                mValue = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    mValue[i] = mBuffer.get(valueOffset + 4 + i);
+                }
+
+                // Blocks are stored back to back
+                mOffset = valueOffset + 4 + length;
+                return true;
+            }
+
+            @NonNull
+            @Override
+            public String getKey() {
+                return mCurrentKey;
+            }
+
+            @Nullable
+            @Override
+            public byte[] getValue() {
+                return mValue;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * @return true if a lookup has found an offset or length outside of the body. The pack should be discarded.
+     */
+    boolean isDamaged() {
+        return mDamaged;
+    }
+
+    private String damaged() {
+        mDamaged = true;
+        return null;
+    }
+
+    /**
+     * @return true if the range lies within the entries of the body
+     */
+    private boolean inBody(int offset, int length) {
+        return offset >= HEADER_SIZE && length >= 0 && (long) offset + length <= mIndexOffset;
+    }
+
+    /**
+     * @return the value of an entry, or null if its length is out of bounds, in which case the pack is marked as damaged
+     */
+    @Nullable
+    private String getValue(int ordinal, int offset) {
+        final int slot = ordinal & (mValues.length - 1);
+        final Value cached = mValues[slot];
+        if (cached != null && cached.mOrdinal == ordinal) {
+            return cached.mValue;
+        }
+
+        final int length = mBuffer.getInt(offset);
+        if (!inBody(offset + 4, length)) {
+            return damaged();
+        }
+
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = mBuffer.get(offset + 4 + i);
+        }
+
+        final String value = new String(bytes, UTF8);
+        mValues[slot] = new Value(ordinal, value);
+        return value;
+    }
+
+    /**
+     * Read a value from an array of bit packed values.
+     */
+    private int readPacked(int offset, int index, int bits) {
+        final long bit = (long) index * bits;
+        final long word = mBuffer.getLong(offset + (int) (bit >>> 3));
+        return (int) ((word >>> (64 - (int) (bit & 7) - bits)) & ((1L << bits) - 1));
+    }
+}
@@ -0,0 +1,107 @@
+package com.novasa.languagecenter;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Translation snapshot bundled with the app as an asset, used to seed the store before the first network sync.
+ * <p>
+ * Snapshots are compiled from translation exports by the compileTranslationSnapshots Gradle task,
+ * and are read from <i>assets/languagecenter/&lt;language code&gt;.snapshot</i>.
+ * <p>
+ * File layout (big endian):
+ * <pre>
+ * int  magic
+ * int  version
+ * long timestamp
+ * int  entry count
+ * entry: int key length, key bytes, int value length, value bytes (UTF-8)
+ * </pre>
+ */
+final class LCTranslationSnapshot {
+
+    static final String ASSET_DIRECTORY = "languagecenter";
+    static final String ASSET_EXTENSION = ".snapshot";
+
+    private static final int MAGIC = 0x4C43534E; // "LCSN"
+    private static final int VERSION = 1;
+
+    private static final int MAX_INITIAL_CAPACITY = 1 << 16;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final long mTimestamp;
+    private final Map<String, String> mTranslations;
+
+    private LCTranslationSnapshot(long timestamp, Map<String, String> translations) {
+        mTimestamp = timestamp;
+        mTranslations = translations;
+    }
+
+    /**
+     * @return the timestamp of the export the snapshot was compiled from
+     */
+    long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * @return the translations, key to value
+     */
+    @NonNull
+    Map<String, String> getTranslations() {
+        return mTranslations;
+    }
+
+    /**
+     * Read a snapshot. The stream is closed.
+     *
+     * @throws IOException if the stream could not be read or is not a valid snapshot
+     */
+    @NonNull
+    static LCTranslationSnapshot read(@NonNull InputStream stream) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Invalid translation snapshot header");
+            }
+
+            final long timestamp = in.readLong();
+            final int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Invalid translation snapshot entry count: " + count);
+            }
+
+            // The count is only a hint for the capacity, a damaged count makes reading the entries fail instead
+            final Map<String, String> translations = new HashMap<>(Math.min(count, MAX_INITIAL_CAPACITY) * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                final String key = readString(in);
+                final String value = readString(in);
+                translations.put(LCTranslationPack.canonicalKey(key), value);
+            }
+
+            return new LCTranslationSnapshot(timestamp, translations);
+
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid translation snapshot string length: " + length);
+        }
+
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -0,0 +1,173 @@
+package com.novasa.languagecenter;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.novasa.languagecenter.interfaces.UpdateCallback;
+import com.novasa.languagecenter.model.TranslationBatch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background writer stage for translation persistence.
+ * <p>
+ * Batches are merged per language while they wait for the writer, so writes that arrive close together,
+ * e.g. a downloaded list and a few created translations, end up as a single pack write.
+ * Callbacks are delivered on the main thread once the merged batch has been written, or has failed for any reason.
+ */
+final class LCTranslationWriter {
+
+    interface Sink {
+
+        /**
+         * Write a merged batch of translations. Called on the writer thread. The batches are closed by the writer afterwards.
+         *
+         * @param languageCode the language code of the translations
+         * @param batches      the translations to write, in the order they were queued. A later batch wins, and a null value removes the translation.
+         * @param incremental  if the translations are changes to the persisted translations, which must exist
+         * @throws IOException if the translations could not be written, or they are incremental and there is nothing to merge them into
+         */
+        void write(@NonNull String languageCode, @NonNull List<TranslationBatch> batches, boolean incremental) throws IOException;
+    }
+
+    private static final long COALESCE_DELAY_MS = 100;
+    private static final long KEEP_ALIVE_MS = 10000;
+
+    private final class Batch implements Runnable {
+
+        private final String mLanguageCode;
+        private final List<TranslationBatch> mBatches = new ArrayList<>();
+        private final List<UpdateCallback> mCallbacks = new ArrayList<>();
+
+        /** A merged batch is only incremental if all of its batches are */
+        private boolean mIncremental;
+
+        Batch(String languageCode, boolean incremental) {
+            mLanguageCode = languageCode;
+            mIncremental = incremental;
+        }
+
+        @Override
+        public void run() {
+            flush(this);
+        }
+    }
+
+    private final Sink mSink;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ScheduledThreadPoolExecutor mExecutor;
+
+    private final Map<String, Batch> mPending = new HashMap<>();
+
+    LCTranslationWriter(@NonNull Sink sink) {
+        mSink = sink;
+
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                final Thread thread = new Thread(r, "LanguageCenter-Writer");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        mExecutor.setKeepAliveTime(KEEP_ALIVE_MS, TimeUnit.MILLISECONDS);
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queue translations for persistence. The batch is owned by the writer after this call, and is closed once it has been written.
+     *
+     * @param languageCode the language code of the translations
+     * @param translations the translations to write. A null value removes the translation.
+     * @param incremental  if the translations are changes to the persisted translations, e.g. a delta or a later page of a download,
+     *                     in which case the batch fails if the language has no valid persisted translations to merge them into
+     * @param callback     optional callback, which will be called on the main thread once the translations have been written
+     */
+    void enqueue(@NonNull String languageCode, @NonNull TranslationBatch translations, boolean incremental, @Nullable UpdateCallback callback) {
+        synchronized (mPending) {
+            Batch batch = mPending.get(languageCode);
+            if (batch == null) {
+                batch = new Batch(languageCode, incremental);
+                mPending.put(languageCode, batch);
+                mExecutor.schedule(batch, COALESCE_DELAY_MS, TimeUnit.MILLISECONDS);
+
+            } else {
+                batch.mIncremental &= incremental;
+            }
+
+            // The batches are merged while the pack is written, so a large download isn't copied
+            batch.mBatches.add(translations);
+
+            if (callback != null) {
+                batch.mCallbacks.add(callback);
+            }
+        }
+    }
+
+    /**
+     * Run a task on the writer thread.
+     */
+    void execute(@NonNull Runnable task) {
+        mExecutor.execute(task);
+    }
+
+    private void flush(final Batch batch) {
+        synchronized (mPending) {
+            // Later batches for the language are merged into a new batch
+            mPending.remove(batch.mLanguageCode);
+        }
+
+        final long tRef = SystemClock.elapsedRealtime();
+
+        int size = 0;
+        for (final TranslationBatch translations : batch.mBatches) {
+            size += translations.size();
+        }
+
+        boolean success;
+        try {
+            mSink.write(batch.mLanguageCode, batch.mBatches, batch.mIncremental);
+            success = true;
+
+            Logger.d("Persist complete (%s, %d translations). Time spent: %d", batch.mLanguageCode, size, SystemClock.elapsedRealtime() - tRef);
+
+        } catch (IOException e) {
+            Logger.e(e, "Failed to persist translations: %s", batch.mLanguageCode);
+            success = false;
+
+        } catch (RuntimeException e) {
+            // Thrown from a task, the error would only end up in its future, and the callbacks would never be called
+            Logger.e(e, "Unexpected error persisting translations: %s", batch.mLanguageCode);
+            success = false;
+
+        } finally {
+            // Delete the runs, whether they were written or not
+            for (final TranslationBatch translations : batch.mBatches) {
+                translations.close();
+            }
+        }
+
+        if (!batch.mCallbacks.isEmpty()) {
+            final boolean result = success;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (final UpdateCallback callback : batch.mCallbacks) {
+                        callback.onUpdated(batch.mLanguageCode, result);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -3,35 +3,380 @@ package com.novasa.languagecenter;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.os.SystemClock;
+import android.content.res.AssetManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import android.text.TextUtils;
 
+import com.novasa.languagecenter.interfaces.UpdateCallback;
 import com.novasa.languagecenter.model.Language;
 import com.novasa.languagecenter.model.Translation;
-
+import com.novasa.languagecenter.model.TranslationBatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static android.content.Context.MODE_PRIVATE;
 
 /**
  * Created by andersp on 28/09/16.
  * <p>
- * Sharedprefs based DB for Translations and Languages.
+ * Sharedprefs based DB for Languages, and memory mapped translation packs for Translations.
+ * <p>
+ * Each language is stored and versioned separately in its own immutable {@link LCTranslationPack}, so a language that has been
+ * downloaded before can be activated straight from disk. Lookups only read from the active language's pack.
+ * <p>
+ * The active pack is an immutable snapshot. Persisting never modifies it, but writes a new pack and publishes it with a single atomic swap
+ * once it is complete, so lookups never take a lock and never see a partially persisted update.
+ * Packs are written by a {@link LCTranslationWriter}, off the main thread.
  */
 
-final class LCTranslationsDB {
+final class LCTranslationsDB implements LCTranslationWriter.Sink {
 
     private static final String PREFS_LANGUAGES_SPACE = "prefs_languages_space";
     private static final String PREFS_TRANSLATIONS_SPACE = "prefs_translations_space";
     private static final String PREFS_OVERRIDDEN_LANGUAGE = "prefs_overridden_language";
+    private static final String PREFS_ACTIVE_LANGUAGE = "prefs_active_language";
+    private static final String PREFS_RESOLVED_LANGUAGE_PREFIX = "prefs_resolved_language_";
+    private static final String PREFS_ETAG_PREFIX = "prefs_etag_";
+    private static final String PREFS_LAST_MODIFIED_PREFIX = "prefs_last_modified_";
+    private static final String PREFS_CONTENT_LENGTH_PREFIX = "prefs_content_length_";
+    private static final String PREFS_LANGUAGE_USED_PREFIX = "prefs_language_used_";
+    private static final String PREFS_LANGUAGE_CHECKED_PREFIX = "prefs_language_checked_";
+    private static final String PREFS_SYNC_CURSOR_PREFIX = "prefs_sync_cursor_";
+    private static final String PREFS_SYNC_SINCE_PREFIX = "prefs_sync_since_";
+    private static final String PREFS_SYNC_TARGET_PREFIX = "prefs_sync_target_";
+    private static final String PREFS_SYNC_COUNT_PREFIX = "prefs_sync_count_";
+    private static final String PREFS_LEGACY_CLEARED = "prefs_legacy_cleared";
+
+    private static final String PACK_DIRECTORY = "languagecenter";
+    private static final String PACK_EXTENSION = ".pack";
 
     private SharedPreferences mSPLanguages;
-    private SharedPreferences mSPTranslations;
+
+    private final File mPackDirectory;
+    private final AtomicReference<LCTranslationPack> mSnapshot = new AtomicReference<>();
+
+    /** Opened packs by language code, so checking a language doesn't map its pack again. Guarded by itself. */
+    private final Map<String, LCTranslationPack> mPacks = new HashMap<>();
+
+    /** Version of the last pack found damaged */
+    private final AtomicInteger mDamagedVersion = new AtomicInteger();
+    private final LCTranslationWriter mWriter = new LCTranslationWriter(this);
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private boolean mSeeded;
+    private final List<Runnable> mSeedCallbacks = new ArrayList<>();
 
     LCTranslationsDB(Context context) {
         mSPLanguages = context.getSharedPreferences(PREFS_LANGUAGES_SPACE, MODE_PRIVATE);
-        mSPTranslations = context.getSharedPreferences(PREFS_TRANSLATIONS_SPACE, MODE_PRIVATE);
+        mPackDirectory = new File(context.getFilesDir(), PACK_DIRECTORY);
+
+        clearLegacyTranslations(context);
+        clearTemporaryFiles(context.getCacheDir());
+
+        final String activeLanguage = mSPLanguages.getString(PREFS_ACTIVE_LANGUAGE, null);
+        if (activeLanguage != null) {
+            mSnapshot.set(openPack(activeLanguage));
+        }
+
+        seed(context.getAssets());
+    }
+
+    /**
+     * Seed languages that have never been persisted from the translation snapshots bundled as assets, if any.
+     * The snapshot timestamp is persisted along with the translations, so the language is only downloaded if the server has something newer.
+     */
+    private void seed(final AssetManager assets) {
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final String[] files = assets.list(LCTranslationSnapshot.ASSET_DIRECTORY);
+                    if (files != null) {
+                        for (final String name : files) {
+                            if (name.endsWith(LCTranslationSnapshot.ASSET_EXTENSION)) {
+                                seed(assets, name);
+                            }
+                        }
+                    }
+
+                } catch (IOException e) {
+                    Logger.e(e, "Failed to list translation snapshots");
+
+                } catch (RuntimeException e) {
+                    Logger.e(e, "Unexpected error listing translation snapshots");
+
+                } finally {
+                    // Languages are activated once seeding is done, so this must happen whatever went wrong
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            mSeeded = true;
+                            for (final Runnable callback : mSeedCallbacks) {
+                                callback.run();
+                            }
+                            mSeedCallbacks.clear();
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private void seed(final AssetManager assets, final String name) {
+        final String languageCode = name.substring(0, name.length() - LCTranslationSnapshot.ASSET_EXTENSION.length());
+        if (hasTranslations(languageCode) || getLanguagePersistedTime(languageCode) > 0) {
+            return;
+        }
+
+        try {
+            final LCTranslationSnapshot snapshot = LCTranslationSnapshot.read(assets.open(LCTranslationSnapshot.ASSET_DIRECTORY + "/" + name));
+
+            write(languageCode, Collections.singletonList(new TranslationBatch(snapshot.getTranslations())), false);
+
+            mSPLanguages.edit()
+                    .putLong(languageCode, snapshot.getTimestamp())
+                    .apply();
+
+            Logger.d("Seeded language %s with %d translations from snapshot (timestamp: %d)", languageCode, snapshot.getTranslations().size(), snapshot.getTimestamp());
+
+        } catch (IOException e) {
+            Logger.e(e, "Failed to seed language %s from snapshot", languageCode);
+
+        } catch (RuntimeException e) {
+            // A damaged snapshot must not keep the other languages from being seeded
+            Logger.e(e, "Unexpected error seeding language %s from snapshot", languageCode);
+        }
+    }
+
+    /**
+     * Run a task on the main thread once bundled translation snapshots have been seeded.
+     * This should be done before checking timestamps or activating languages.
+     */
+    void runWhenSeeded(final Runnable task) {
+        if (mSeeded) {
+            task.run();
+
+        } else {
+            mSeedCallbacks.add(task);
+        }
+    }
+
+    /**
+     * Translations used to be stored in a single shared preferences file. They are not migrated,
+     * since {@link #hasTranslations(String)} will make the service download them again.
+     * The file is removed once, on the writer thread, since loading it could take a while.
+     */
+    private void clearLegacyTranslations(final Context context) {
+        if (mSPLanguages.getBoolean(PREFS_LEGACY_CLEARED, false)) {
+            return;
+        }
+
+        mWriter.execute(new Runnable() {
+            @SuppressLint("ApplySharedPref")
+            @Override
+            public void run() {
+                Logger.d("Clearing legacy translations");
+
+                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N || !context.deleteSharedPreferences(PREFS_TRANSLATIONS_SPACE)) {
+                    context.getSharedPreferences(PREFS_TRANSLATIONS_SPACE, MODE_PRIVATE)
+                            .edit()
+                            .clear()
+                            .commit();
+                }
+
+                mSPLanguages.edit()
+                        .putBoolean(PREFS_LEGACY_CLEARED, true)
+                        .apply();
+            }
+        });
+    }
+
+    /**
+     * Remove packs that were being written, and runs of downloads that were being parsed, when the process died.
+     * The pack they would have replaced is still intact.
+     */
+    private void clearTemporaryFiles(@Nullable File cacheDirectory) {
+        final File[] files = mPackDirectory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                if (file.getName().endsWith(LCTranslationPack.TMP_EXTENSION)) {
+                    Logger.d("Deleting incomplete translation pack: %s", file);
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                }
+            }
+        }
+
+        if (cacheDirectory != null) {
+            final File[] runs = new File(cacheDirectory, TranslationBatch.RUN_DIRECTORY).listFiles();
+            if (runs != null) {
+                Logger.d("Deleting %d stale translation runs", runs.length);
+                for (final File run : runs) {
+                    //noinspection ResultOfMethodCallIgnored
+                    run.delete();
+                }
+            }
+        }
+    }
+
+    private File getPackFile(String languageCode) {
+        return new File(mPackDirectory, languageCode + PACK_EXTENSION);
+    }
+
+    /**
+     * @return the language's pack, which is only mapped the first time it is opened, or null if the language has no valid pack
+     */
+    @Nullable
+    private LCTranslationPack openPack(String languageCode) {
+        synchronized (mPacks) {
+            final LCTranslationPack cached = mPacks.get(languageCode);
+            if (cached != null) {
+                return cached;
+            }
+
+            final File file = getPackFile(languageCode);
+            if (!file.exists()) {
+                return null;
+            }
+
+            try {
+                final LCTranslationPack pack = LCTranslationPack.open(languageCode, file);
+                mPacks.put(languageCode, pack);
+                return pack;
+
+            } catch (IOException e) {
+                // The pack is unusable, e.g. written in an older format or damaged. Delete it, so the language is downloaded again.
+                Logger.e(e, "Failed to open translation pack: %s", file);
+                discardPack(languageCode);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Delete a language's pack, and reset its persisted time, so its timestamp never claims translations that are not on disk.
+     */
+    private void discardPack(String languageCode) {
+        synchronized (mPacks) {
+            //noinspection ResultOfMethodCallIgnored
+            getPackFile(languageCode).delete();
+            mPacks.remove(languageCode);
+        }
+
+        resetLanguagePersistedTime(languageCode);
+        clearValidators(languageCode);
+        clearSyncProgress(languageCode);
+    }
+
+    /**
+     * Discard the file of an active pack that a lookup found damaged, on the writer thread, so the language is downloaded in full again.
+     * The pack stays active until a new pack is published, and its damaged entries are treated as missing.
+     */
+    private void discardDamagedPack(final LCTranslationPack pack) {
+        // Only once per pack
+        final int version = pack.getVersion();
+        if (mDamagedVersion.getAndSet(version) == version) {
+            return;
+        }
+
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                // If another pack has been published since, the file is no longer the damaged one
+                if (mSnapshot.get() == pack) {
+                    Logger.e("Translation pack damaged: %s", pack.getLanguage());
+                    discardPack(pack.getLanguage());
+                }
+            }
+        });
+    }
+
+    /**
+     * The language's pack is only opened the first time, which reads its header, and kept open afterwards.
+     *
+     * @param languageCode the language code eg. "da", "no" etc.
+     * @return true if valid translations for the language have been persisted
+     */
+    boolean hasTranslations(String languageCode) {
+        // Checks the file rather than the active pack, which stays active after a damaged file has been discarded
+        return openPack(languageCode) != null;
+    }
+
+    /**
+     * @return the language code of the translations currently used for lookups, or null if no language is active
+     */
+    @Nullable
+    String getActiveLanguage() {
+        final LCTranslationPack pack = mSnapshot.get();
+        return pack != null ? pack.getLanguage() : null;
+    }
+
+    /**
+     * @return the version of the active translations. This changes every time a new snapshot is published.
+     */
+    int getVersion() {
+        final LCTranslationPack pack = mSnapshot.get();
+        return pack != null ? pack.getVersion() : 0;
+    }
+
+    /**
+     * Use the persisted translations of a language for lookups.
+     *
+     * @param languageCode the language code eg. "da", "no" etc.
+     * @return true if the language was activated, false if it has no persisted translations
+     */
+    boolean activateLanguage(String languageCode) {
+        final LCTranslationPack current = mSnapshot.get();
+        if (current != null && current.getLanguage().equals(languageCode)) {
+            return true;
+        }
+
+        final LCTranslationPack pack = openPack(languageCode);
+        if (pack == null) {
+            return false;
+        }
+
+        Logger.d("Activating language: %s (%d translations)", languageCode, pack.size());
+
+        mSnapshot.set(pack);
+        mSPLanguages.edit()
+                .putString(PREFS_ACTIVE_LANGUAGE, languageCode)
+                .apply();
+
+        return true;
+    }
+
+    /**
+     * Remember which language was actually used for a requested language, e.g. the fallback language if the requested language is not available.
+     *
+     * @param requestedLanguage the requested language code
+     * @param actualLanguage    the language code that was used
+     */
+    void setResolvedLanguage(String requestedLanguage, String actualLanguage) {
+        mSPLanguages.edit()
+                .putString(PREFS_RESOLVED_LANGUAGE_PREFIX + requestedLanguage, actualLanguage)
+                .apply();
+    }
+
+    /**
+     * @param requestedLanguage the requested language code
+     * @return the language code that was last used for the requested language, or the requested language itself if it has never been resolved
+     */
+    String getResolvedLanguage(String requestedLanguage) {
+        return mSPLanguages.getString(PREFS_RESOLVED_LANGUAGE_PREFIX + requestedLanguage, requestedLanguage);
     }
 
     /**
@@ -50,12 +395,103 @@ final class LCTranslationsDB {
      * @param language the language code eg. "da", "no" etc.
      */
     void resetLanguagePersistedTime(Language language) {
-        Logger.d("Resetting timestamp for language: %s", language);
+        resetLanguagePersistedTime(language.getCodename());
+    }
+
+    /**
+     * Reset the language persisted time
+     *
+     * @param languageCode the language code eg. "da", "no" etc.
+     */
+    void resetLanguagePersistedTime(String languageCode) {
+        Logger.d("Resetting timestamp for language: %s", languageCode);
+        mSPLanguages.edit()
+                .putLong(languageCode, 0)
+                .remove(PREFS_LANGUAGE_CHECKED_PREFIX + languageCode)
+                .apply();
+    }
+
+    /**
+     * Save the timestamp of the language once all its translations are persisted.
+     *
+     * @param languageCode the language code eg. "da", "no" etc.
+     * @param timestamp    the timestamp of the language the translations were downloaded for
+     */
+    void setLanguagePersistTime(String languageCode, long timestamp) {
+        Logger.d("Persisting timestamp for language: %s (%d)", languageCode, timestamp);
+        mSPLanguages.edit()
+                .putLong(languageCode, timestamp)
+                .apply();
+    }
+
+    /**
+     * Remember how far a paginated download of a language has come, so an interrupted download can resume from the next page.
+     * Only call this once the translations of the page have been persisted.
+     *
+     * @param languageCode the language code eg. "da", "no" etc.
+     * @param since        the <i>since</i> parameter of the download
+     * @param cursor       the cursor of the next page
+     * @param target       the timestamp of the language the download was started for
+     * @param count        the number of translations downloaded so far
+     */
+    void setSyncProgress(String languageCode, long since, String cursor, long target, int count) {
+        mSPLanguages.edit()
+                .putString(PREFS_SYNC_CURSOR_PREFIX + languageCode, cursor)
+                .putLong(PREFS_SYNC_SINCE_PREFIX + languageCode, since)
+                .putLong(PREFS_SYNC_TARGET_PREFIX + languageCode, target)
+                .putInt(PREFS_SYNC_COUNT_PREFIX + languageCode, count)
+                .apply();
+    }
+
+    void clearSyncProgress(String languageCode) {
+        mSPLanguages.edit()
+                .remove(PREFS_SYNC_CURSOR_PREFIX + languageCode)
+                .remove(PREFS_SYNC_SINCE_PREFIX + languageCode)
+                .remove(PREFS_SYNC_TARGET_PREFIX + languageCode)
+                .remove(PREFS_SYNC_COUNT_PREFIX + languageCode)
+                .apply();
+    }
+
+    /**
+     * @param since the <i>since</i> parameter of the download we are about to start
+     * @return the cursor to resume an interrupted download from, or null if there is nothing to resume for the same <i>since</i>
+     */
+    @Nullable
+    String getSyncCursor(String languageCode, long since) {
+        if (mSPLanguages.getLong(PREFS_SYNC_SINCE_PREFIX + languageCode, -1) != since) {
+            return null;
+        }
+
+        return mSPLanguages.getString(PREFS_SYNC_CURSOR_PREFIX + languageCode, null);
+    }
+
+    long getSyncTarget(String languageCode) {
+        return mSPLanguages.getLong(PREFS_SYNC_TARGET_PREFIX + languageCode, 0);
+    }
+
+    int getSyncCount(String languageCode) {
+        return mSPLanguages.getInt(PREFS_SYNC_COUNT_PREFIX + languageCode, 0);
+    }
+
+    /**
+     * Save the time the language list confirmed that the persisted translations of a language are current.
+     *
+     * @param languageCode the language code eg. "da", "no" etc.
+     */
+    void setLanguageCheckedTime(String languageCode) {
         mSPLanguages.edit()
-                .putLong(language.getCodename(), 0)
+                .putLong(PREFS_LANGUAGE_CHECKED_PREFIX + languageCode, System.currentTimeMillis())
                 .apply();
     }
 
+    /**
+     * @param languageCode the language code eg. "da", "no" etc.
+     * @return the time the persisted translations of the language were last confirmed current, in milliseconds since the epoch, or 0 if never
+     */
+    long getLanguageCheckedTime(String languageCode) {
+        return mSPLanguages.getLong(PREFS_LANGUAGE_CHECKED_PREFIX + languageCode, 0);
+    }
+
     /**
      * When all translations of a language are persisted we save the time the language was last updated.
      *
@@ -68,6 +504,85 @@ final class LCTranslationsDB {
                 .apply();
     }
 
+    /**
+     * Remember the HTTP validators of the last translations response for a language, so the next request can be conditional.
+     * Only call this once the translations of the response have been persisted.
+     *
+     * @param languageCode  the language code eg. "da", "no" etc.
+     * @param etag          the ETag header of the response, if any
+     * @param lastModified  the Last-Modified header of the response, if any
+     * @param contentLength the size of the response body, or -1 if unknown
+     */
+    void setValidators(String languageCode, @Nullable String etag, @Nullable String lastModified, long contentLength) {
+        mSPLanguages.edit()
+                .putString(PREFS_ETAG_PREFIX + languageCode, etag)
+                .putString(PREFS_LAST_MODIFIED_PREFIX + languageCode, lastModified)
+                .putLong(PREFS_CONTENT_LENGTH_PREFIX + languageCode, contentLength)
+                .apply();
+    }
+
+    void clearValidators(String languageCode) {
+        mSPLanguages.edit()
+                .remove(PREFS_ETAG_PREFIX + languageCode)
+                .remove(PREFS_LAST_MODIFIED_PREFIX + languageCode)
+                .remove(PREFS_CONTENT_LENGTH_PREFIX + languageCode)
+                .apply();
+    }
+
+    @Nullable
+    String getETag(String languageCode) {
+        return mSPLanguages.getString(PREFS_ETAG_PREFIX + languageCode, null);
+    }
+
+    @Nullable
+    String getLastModified(String languageCode) {
+        return mSPLanguages.getString(PREFS_LAST_MODIFIED_PREFIX + languageCode, null);
+    }
+
+    long getContentLength(String languageCode) {
+        return mSPLanguages.getLong(PREFS_CONTENT_LENGTH_PREFIX + languageCode, -1);
+    }
+
+    /**
+     * Remember that a language was used, so it can be prefetched later.
+     *
+     * @param languageCode the language code eg. "da", "no" etc.
+     */
+    void setLanguageUsed(String languageCode) {
+        mSPLanguages.edit()
+                .putLong(PREFS_LANGUAGE_USED_PREFIX + languageCode, System.currentTimeMillis())
+                .apply();
+    }
+
+    /**
+     * @param time the earliest time of use, in milliseconds since the epoch
+     * @return the codes of the languages used since the time, most recently used first
+     */
+    List<String> getLanguagesUsedSince(final long time) {
+        final List<String> languages = new ArrayList<>();
+        final Map<String, Long> used = new HashMap<>();
+
+        for (final Map.Entry<String, ?> entry : mSPLanguages.getAll().entrySet()) {
+            final String key = entry.getKey();
+            final Object value = entry.getValue();
+
+            if (key.startsWith(PREFS_LANGUAGE_USED_PREFIX) && value instanceof Long && (Long) value >= time) {
+                final String language = key.substring(PREFS_LANGUAGE_USED_PREFIX.length());
+                languages.add(language);
+                used.put(language, (Long) value);
+            }
+        }
+
+        Collections.sort(languages, new Comparator<String>() {
+            @Override
+            public int compare(String l1, String l2) {
+                return used.get(l2).compareTo(used.get(l1));
+            }
+        });
+
+        return languages;
+    }
+
     void setOverriddenLanguage(final String language) {
         mSPLanguages.edit()
                 .putString(PREFS_OVERRIDDEN_LANGUAGE, language)
@@ -91,6 +606,7 @@ final class LCTranslationsDB {
 
     /**
      * Get a single translation and post a new string for creation to the language center api if missing.
+     * Keys are matched case insensitively, and a lookup of a translation that has been read before doesn't allocate.
      *
      * @param key      translation key for language center api
      * @param fallback fallback text
@@ -112,7 +628,8 @@ final class LCTranslationsDB {
             return translation;
         }
 
-        translation = mSPTranslations.getString(key.toLowerCase(), null);
+        final LCTranslationPack pack = mSnapshot.get();
+        translation = pack != null ? pack.get(key) : null;
 
         if (translation == null) {
             // If translation doesn't exist we show fallback text and create a new translation
@@ -123,7 +640,13 @@ final class LCTranslationsDB {
                 translation = "(F)" + translation;
             }
 
-            LanguageCenter.getInstance().getService().createTranslation(key, fallback, comment);
+            if (pack != null && pack.isDamaged()) {
+                // The key may well exist, so it is not reported as missing
+                discardDamagedPack(pack);
+
+            } else {
+                LanguageCenter.getInstance().getService().createTranslation(key, fallback, comment);
+            }
 
         } else {
             if (LanguageCenter.getInstance().isDebugMode()) {
@@ -135,31 +658,26 @@ final class LCTranslationsDB {
     }
 
     /**
-     * Persist a list of translations.
+     * Persist a batch of translations. The translations are merged with any translations already persisted for the language,
+     * and deleted translations are removed.
+     * The pack is written on the background writer, and if the language is active, lookups will use the new translations once it has been written.
+     * The batch is handed to the writer, which closes it once it has been written, so it must not be used after this call.
      *
-     * @param translations list of translations to persist
+     * @param languageCode the language code of the translations
+     * @param batch        the translations to persist
+     * @param incremental  if the translations are changes to the persisted translations, e.g. a delta or a later page of a download.
+     *                     If the language has no valid persisted translations, the batch fails instead of being written on its own.
+     * @param callback     called on the main thread once the translations have been written
      */
-    @SuppressLint("ApplySharedPref")
-    void persistTranslationsList(final List<Translation> translations) {
-
-        final long tRef = SystemClock.elapsedRealtime();
+    void persistTranslationBatch(final String languageCode, final TranslationBatch batch, final boolean incremental, @Nullable final UpdateCallback callback) {
 
-        Logger.d("Persisting %d translations...", translations.size());
+        Logger.d("Persisting %d translations...", batch.size());
 
-        final SharedPreferences.Editor editor = mSPTranslations.edit();
-
-        for (int i = 0, c = translations.size(); i < c; i++) {
-            final Translation t = translations.get(i);
-            editor.putString(t.getKey(), t.getValue());
-        }
-
-        editor.commit();
-
-        Logger.d("Persist complete. Time spent: %d", SystemClock.elapsedRealtime() - tRef);
+        mWriter.enqueue(languageCode, batch, incremental, callback);
     }
 
     /**
-     * Persist a single translation.
+     * Persist a single translation to the active language.
      *
      * @param translation translation to persist
      */
@@ -167,8 +685,91 @@ final class LCTranslationsDB {
 
         Logger.d("Language persisting translation: %s", translation);
 
-        mSPTranslations.edit()
-                .putString(translation.getKey(), translation.getValue())
-                .apply();
+        final LCTranslationPack current = mSnapshot.get();
+        final String languageCode = current != null ? current.getLanguage() : translation.getLanguage();
+
+        if (languageCode == null) {
+            Logger.w("No active language, skipping translation: %s", translation);
+            return;
+        }
+
+        final TranslationBatch batch = new TranslationBatch(Collections.singletonMap(translation.getKey(), translation.getValue()));
+        // A created translation is only worth keeping along with the rest of the language
+        mWriter.enqueue(languageCode, batch, true, null);
+    }
+
+    /**
+     * Merge batches of translations into the language's pack. Translations with a null value are removed. Only called on the writer thread.
+     * <p>
+     * The current pack and the sorted runs of the batches are merged while the new pack is streamed to disk,
+     * so neither the current translations nor the batches are ever held in memory as a whole.
+     */
+    @Override
+    public void write(@NonNull final String languageCode, @NonNull final List<TranslationBatch> batches, final boolean incremental) throws IOException {
+        final List<TranslationBatch.Reader> sources = new ArrayList<>();
+        try {
+            final LCTranslationPack current = openPack(languageCode);
+            if (current != null) {
+                if (current.verify()) {
+                    sources.add(current.read());
+
+                } else {
+                    // Don't carry damaged translations over into the new pack
+                    Logger.e("Translation pack checksum mismatch: %s", languageCode);
+                    discardPack(languageCode);
+                }
+            }
+
+            if (incremental && sources.isEmpty()) {
+                // Written on their own, a few changes would pass for the complete language
+                throw new IOException("No translations to merge changes into: " + languageCode);
+            }
+
+            // Later batches win
+            for (final TranslationBatch batch : batches) {
+                sources.addAll(batch.openReaders());
+            }
+
+            final File file = getPackFile(languageCode);
+            LCTranslationPack.write(file, sources);
+
+            final LCTranslationPack pack = LCTranslationPack.open(languageCode, file);
+
+            // The body was just written and synced, so merging the next batch, e.g. the next page of a download, doesn't read it all back
+            pack.setVerified();
+
+            synchronized (mPacks) {
+                mPacks.put(languageCode, pack);
+            }
+
+            publish(languageCode, pack);
+
+        } finally {
+            for (final TranslationBatch.Reader source : sources) {
+                try {
+                    source.close();
+
+                } catch (IOException e) {
+                    Logger.w("Failed to close translation run: %s", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Swap in a newly written pack, if its language is still the active language.
+     */
+    private void publish(final String languageCode, final LCTranslationPack pack) {
+        while (true) {
+            final LCTranslationPack current = mSnapshot.get();
+            if (current == null || !current.getLanguage().equals(languageCode)) {
+                return;
+            }
+
+            if (mSnapshot.compareAndSet(current, pack)) {
+                Logger.d("Published translations: %s (version %d)", languageCode, pack.getVersion());
+                return;
+            }
+        }
     }
 }
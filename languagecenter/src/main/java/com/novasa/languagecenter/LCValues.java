@@ -9,4 +9,8 @@ final class LCValues {
     static final String PARAM_PLATFORM = "android";
     static final String PARAM_INDEXING = "off";
     static final String PARAM_TIMESTAMP = "on";
+
+    // paginated downloads
+    static final String HEADER_NEXT_CURSOR = "X-Next-Cursor";
+    static final String HEADER_TOTAL_COUNT = "X-Total-Count";
 }
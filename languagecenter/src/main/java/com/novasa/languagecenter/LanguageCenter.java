@@ -12,21 +12,24 @@ import android.net.Network;
 import android.net.NetworkCapabilities;
 import android.os.Build;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.SystemClock;
 import android.text.TextUtils;
 
+import com.novasa.languagecenter.interfaces.OnLanguageCenterProgressCallback;
 import com.novasa.languagecenter.interfaces.OnLanguageCenterReadyCallback;
 import com.novasa.languagecenter.interfaces.UpdateCallback;
+import com.novasa.languagecenter.service.LCCacheStats;
 
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Locale;
 
+import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import androidx.annotation.StringRes;
+import okhttp3.OkHttpClient;
 
 /**
  * Created by andersp on 04/10/16.
@@ -57,6 +60,12 @@ import androidx.annotation.StringRes;
  * <p> Use widgets {@link com.novasa.languagecenter.view.LanguageCenterTextView}, {@link com.novasa.languagecenter.view.LanguageCenterButton}, {@link com.novasa.languagecenter.view.LanguageCenterEditText}
  * for handy xml properties <i>transKey</i> <i>transComment</i> <i>hintTransKey</i> <i>hintTransComment</i>, which can be used to set the translation keys directly in xml.
  * All LanguageCenter widgets update automatically when a language update finishes.
+ *
+ * <p> Threading: translations can be looked up from any thread, e.g. when building notifications or inflating layouts in the background.
+ * Lookups don't take any locks, and always see a complete set of translations of a single language, even while an update is being persisted.
+ * {@link #getStatus()}, {@link #getLanguage()} and {@link #getTranslationVersion()} are safe from any thread too,
+ * and so is registering and unregistering callbacks. Callbacks are called on the main thread.
+ * Everything that changes the language or starts an update must be called on the main thread.
  */
 @SuppressWarnings({"UnusedReturnValue", "WeakerAccess", "unused"})
 public final class LanguageCenter implements UpdateCallback {
@@ -72,7 +81,10 @@ public final class LanguageCenter implements UpdateCallback {
     public static final String LOG_TAG = "LanguageCenter";
     public static boolean DEBUGGABLE;
 
-    private static LanguageCenter sInstance;
+    private static volatile LanguageCenter sInstance;
+
+    /** Background updates tried before giving up until the next start */
+    private static final int MAX_REFRESH_ATTEMPTS = 5;
 
 
     public static LanguageCenter with(@NonNull Context context) {
@@ -178,24 +190,51 @@ public final class LanguageCenter implements UpdateCallback {
         }
     }
 
-    private boolean mDebugging = false;
+    private volatile boolean mDebugging = false;
     private boolean mNoop = false;
 
     private Resources mResources;
     private LCService mService;
     private LCTranslationsDB mDatabase;
+    private final LCFormatter mFormatter = new LCFormatter();
 
-    private Status mStatus;
-
-    private String mLanguage;
+    // Written on the main thread, read from any thread
+    private volatile Status mStatus;
+    private volatile String mLanguage;
 
     private long mTimeRef;
 
+    /** Consecutive failed updates, for backing off updates triggered by network changes */
+    private int mFailedUpdates;
+
+    /** How long a check of the language list is trusted at startup. 0 to always check. */
+    private long mFreshnessTtlMs;
+
+    /** True while updating in the background, after starting from the local store */
+    private boolean mRefreshing;
+
+    /** Consecutive failed background updates. After {@link #MAX_REFRESH_ATTEMPTS}, the next start tries again. */
+    private int mFailedRefreshes;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final Runnable mRefresh = new Runnable() {
+        @Override
+        public void run() {
+            // An update started in the meantime covers the refresh
+            if (mStatus == Status.READY && !mRefreshing) {
+                refresh();
+            }
+        }
+    };
+
+    private OnLanguageCenterProgressCallback mProgressCallback;
+
     private LanguageCenter(Context context, String baseUrl, String userName, String password) {
         mStatus = Status.NOT_INITIALIZED;
 
         mResources = context.getResources();
-        mService = new LCService(baseUrl, userName, password);
+        mService = new LCService(context, baseUrl, userName, password);
         mDatabase = new LCTranslationsDB(context);
 
         final String overriddenLanguage = mDatabase.getOverriddenLanguage();
@@ -217,6 +256,7 @@ public final class LanguageCenter implements UpdateCallback {
      * @param context Must be Application context, since LanguageCenter registers a receiver to listen for device language changes.
      * @param language Initialize LanguageCenter with a specific language, overriding the device language setting.
      */
+    @MainThread
     public void initialize(@NonNull final Context context, @NonNull String language) {
         if (!language.equals(mLanguage)) {
             mLanguage = language;
@@ -229,6 +269,7 @@ public final class LanguageCenter implements UpdateCallback {
      * Initialize LanguageCenter. This should only be called if {@link #with} was called without auto init.
      * @param context Must be Application context, since LanguageCenter registers a receiver to listen for device language setting changes.
      */
+    @MainThread
     public void initialize(@NonNull final Context context) {
         if (mStatus != Status.NOT_INITIALIZED) {
             Logger.e("Language Center was already initialized!");
@@ -260,11 +301,67 @@ public final class LanguageCenter implements UpdateCallback {
         new Handler().post(new Runnable() {
             @Override
             public void run() {
-                updateInitial(context);
+                if (mFreshnessTtlMs > 0) {
+                    // Bundled snapshots must be seeded before we check timestamps
+                    mDatabase.runWhenSeeded(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!startFromLocalStore()) {
+                                updateInitial(context);
+                            }
+                        }
+                    });
+
+                } else {
+                    updateInitial(context);
+                }
             }
         });
     }
 
+    /**
+     * Become ready with the persisted translations of the language, if we have them. If the language list was checked within the freshness TTL,
+     * that is all. Otherwise the translations are updated in the background.
+     *
+     * @return true if LanguageCenter is ready
+     */
+    private boolean startFromLocalStore() {
+        if (mStatus != Status.INITIALIZING) {
+            // The language was changed in the meantime, which started an update
+            return false;
+        }
+
+        final String language = mDatabase.getResolvedLanguage(mLanguage);
+        if (!mDatabase.activateLanguage(language)) {
+            return false;
+        }
+
+        mTimeRef = SystemClock.elapsedRealtime();
+
+        final long age = System.currentTimeMillis() - mDatabase.getLanguageCheckedTime(language);
+        if (age >= 0 && age < mFreshnessTtlMs) {
+            Logger.d("Language Center language was checked %d s ago: %s. Skipping update.", age / 1000, language);
+            onUpdated(language, true);
+
+        } else {
+            Logger.d("Language Center language is stale: %s. Updating in the background.", language);
+            onUpdated(language, true);
+
+            mFailedRefreshes = 0;
+            refresh();
+        }
+
+        return true;
+    }
+
+    /**
+     * Update the translations in the background, while staying ready with the translations we have.
+     */
+    private void refresh() {
+        mRefreshing = true;
+        mService.downloadTranslations(mLanguage, this);
+    }
+
     private void updateInitial(final Context context) {
         update(new OnLanguageCenterReadyCallback() {
             @Override
@@ -285,12 +382,21 @@ public final class LanguageCenter implements UpdateCallback {
 
         final BroadcastReceiver networkChangeReceiver = new BroadcastReceiver() {
             @Override
-            public void onReceive(Context context, Intent intent) {
+            public void onReceive(final Context context, Intent intent) {
                 if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP || hasNetwork(context)) {
                     // If we're below 21 we just retry instead of making sure we have network.
-                    // If it fails again we will just be back here until it succeeds.
+                    // If it fails again we will just be back here until it succeeds, backing off a little more each time.
                     context.unregisterReceiver(this);
-                    updateInitial(context);
+
+                    final long delay = mService.getUpdateRetryDelay(mFailedUpdates - 1);
+                    Logger.d("Network changed. Updating in %d ms", delay);
+
+                    new Handler().postDelayed(new Runnable() {
+                        @Override
+                        public void run() {
+                            updateInitial(context);
+                        }
+                    }, delay);
                 }
             }
         };
@@ -345,6 +451,7 @@ public final class LanguageCenter implements UpdateCallback {
      *
      * @return true if LanguageCenter will update, false if the language is already set, and no update is required
      */
+    @MainThread
     public boolean setDeviceLanguage() {
         return setLanguage(getDeviceLanguage(), false, null);
     }
@@ -358,6 +465,7 @@ public final class LanguageCenter implements UpdateCallback {
      *                 NOTE: This is stored as a weak reference!
      * @return true if LanguageCenter will update, false if the language is already set, and no update is required
      */
+    @MainThread
     public boolean setDeviceLanguage(@Nullable final OnLanguageCenterReadyCallback callback) {
         return setLanguage(getDeviceLanguage(), false, callback);
     }
@@ -368,6 +476,7 @@ public final class LanguageCenter implements UpdateCallback {
      * @param language The manual language code according to ISO 639-1, e.g. "en" for english
      * @return true if LanguageCenter will update, false if the language is already set, and no update is required
      */
+    @MainThread
     public boolean setLanguage(@NonNull final String language) {
         return setLanguage(language, true, null);
     }
@@ -380,6 +489,7 @@ public final class LanguageCenter implements UpdateCallback {
      *                 NOTE: This is stored as a weak reference!
      * @return true if LanguageCenter will update, false if the language is already set, and no update is required
      */
+    @MainThread
     public boolean setLanguage(@NonNull final String language, @Nullable final OnLanguageCenterReadyCallback callback) {
         return setLanguage(language, true, callback);
     }
@@ -414,6 +524,7 @@ public final class LanguageCenter implements UpdateCallback {
         return false;
     }
 
+    @MainThread
     public void update() {
         update(null);
     }
@@ -424,6 +535,7 @@ public final class LanguageCenter implements UpdateCallback {
      * @param callback A one shot callback that will be called once the update has completed.
      *                 NOTE: This is stored as a weak reference!
      */
+    @MainThread
     public void update(@Nullable final OnLanguageCenterReadyCallback callback) {
         if (mNoop) {
             if (callback != null) {
@@ -432,7 +544,12 @@ public final class LanguageCenter implements UpdateCallback {
             return;
         }
 
-        mStatus = Status.UPDATING;
+        // The status changes with the callback lock held, like in onUpdated, so a one shot callback registered from another thread waits for this update
+        synchronized (mCallbackLock) {
+            mStatus = Status.UPDATING;
+        }
+        mRefreshing = false;
+        mMainHandler.removeCallbacks(mRefresh);
 
         if (callback != null) {
             registerOneShotCallback(callback);
@@ -449,17 +566,57 @@ public final class LanguageCenter implements UpdateCallback {
             return;
         }
 
-        mStatus = success ? Status.READY : Status.FAILED;
+        if (mRefreshing) {
+            mRefreshing = false;
+
+            if (!success) {
+                // We are still ready with the translations we have, so try again in a while, backing off like any other update
+                if (++mFailedRefreshes < MAX_REFRESH_ATTEMPTS) {
+                    final long delay = mService.getUpdateRetryDelay(mFailedRefreshes - 1);
+                    Logger.d("Language Center background update failed (%s). Trying again in %d ms", language, delay);
+                    mMainHandler.removeCallbacks(mRefresh);
+                    mMainHandler.postDelayed(mRefresh, delay);
+
+                } else {
+                    Logger.d("Language Center background update failed (%s). The next start will try again.", language);
+                }
+                return;
+            }
+        }
+
+        final Status status = success ? Status.READY : Status.FAILED;
+        mFailedUpdates = success ? 0 : mFailedUpdates + 1;
+
+        if (success) {
+            mDatabase.setLanguageUsed(language);
+        }
+
+        final WeakReference<OnLanguageCenterReadyCallback>[] oneShotCallbacks;
+        final WeakReference<OnLanguageCenterReadyCallback>[] persistentCallbacks;
+
+        // The status changes with the same lock held as registering one shot callbacks, so they are either notified here, or right away
+        synchronized (mCallbackLock) {
+            mStatus = status;
+
+            oneShotCallbacks = mOneShotCallbacks.snapshot();
+            mOneShotCallbacks.clear();
 
-        purgeCallbacks();
+            persistentCallbacks = mPersistentCallbacks.snapshot();
+        }
 
         Logger.d("Language Center updated (%s) - status: %s. Time spent: %d ms. Sending %d one shot callbacks and %d persistent callbacks.",
-                language, mStatus, SystemClock.elapsedRealtime() - mTimeRef, mOneShotCallbacks.size(), mPersistentCallbacks.size());
+                language, status, SystemClock.elapsedRealtime() - mTimeRef, oneShotCallbacks.length, persistentCallbacks.length);
+
+        notify(language, status, oneShotCallbacks);
+        notify(language, status, persistentCallbacks);
+    }
 
-        notify(language, mStatus, mOneShotCallbacks);
-        mOneShotCallbacks.clear();
+    void onProgress(String language, int downloaded, int total) {
+        Logger.d("Language Center downloaded %d of %d translations (%s)", downloaded, total, language);
 
-        notify(language, mStatus, mPersistentCallbacks);
+        if (mProgressCallback != null) {
+            mProgressCallback.onLanguageCenterProgress(this, language, downloaded, total);
+        }
     }
 
     /**
@@ -530,20 +687,38 @@ public final class LanguageCenter implements UpdateCallback {
      * @return The translated string
      */
     public String getTranslationWithStringFormat(final String key, final String fallback, final Object... args) {
-        if (mNoop) {
-            return String.format(new Locale(mLanguage), fallback, args);
-        }
-
-        final String translation = getTranslationDB().getTranslation(key, fallback, "");
-        try {
-            return String.format(new Locale(mLanguage), translation, args);
+        final String language = mLanguage;
+
+        if (!mNoop) {
+            final LCTranslationsDB db = getTranslationDB();
+            final String translation = db.getTranslation(key, fallback, "");
+            final String result = mFormatter.format(language, db.getVersion(), key, translation, args);
+            if (result != null) {
+                return result;
+            }
 
-        } catch (Exception e) {
             if (isDebugMode()) {
-                Logger.e("Formatting error in translation to %s (%s). Returning to fallback text.", translation, mLanguage);
+                Logger.e("Formatting error in translation to %s (%s). Returning to fallback text.", translation, language);
             }
-            return String.format(new Locale(mLanguage), fallback, args);
         }
+
+        final String result = mFormatter.formatFallback(language, key, fallback, args);
+        if (result != null) {
+            return result;
+        }
+
+        // An invalid fallback is a programming error, so let String.format report it
+        return String.format(mFormatter.getLocale(language), fallback, args);
+    }
+
+    /**
+     * @return A version number of the translations in use. It changes whenever an update or a language change publishes new translations.
+     */
+    public int getTranslationVersion() {
+        if (mNoop) {
+            return 0;
+        }
+        return getTranslationDB().getVersion();
     }
 
     public boolean didUpdate() {
@@ -571,19 +746,37 @@ public final class LanguageCenter implements UpdateCallback {
     }
 
 
-    private final List<WeakReference<OnLanguageCenterReadyCallback>> mOneShotCallbacks = new ArrayList<>();
-    private final List<WeakReference<OnLanguageCenterReadyCallback>> mPersistentCallbacks = new ArrayList<>();
+    /** Guards the callback registries, which can be changed from any thread */
+    private final Object mCallbackLock = new Object();
+    private final LCCallbackRegistry<OnLanguageCenterReadyCallback> mOneShotCallbacks = new LCCallbackRegistry<>();
+    private final LCCallbackRegistry<OnLanguageCenterReadyCallback> mPersistentCallbacks = new LCCallbackRegistry<>();
 
     /**
      * Register a callback that will be fired when LanguageCenter has finished updating.
      * The callback will be cleared once the update has finished.
+     * If LanguageCenter is already ready, the callback is fired right away, or posted to the main thread if this is called from another thread.
      */
-    public void registerOneShotCallback(OnLanguageCenterReadyCallback callback) {
-        if (mStatus == Status.READY) {
-            callback.onLanguageCenterReady(this, mLanguage, mStatus);
+    public void registerOneShotCallback(final OnLanguageCenterReadyCallback callback) {
+        final String language;
+        synchronized (mCallbackLock) {
+            if (mStatus != Status.READY) {
+                register(callback, mOneShotCallbacks);
+                return;
+            }
+            language = mLanguage;
+        }
+
+        final Looper mainLooper = Looper.getMainLooper();
+        if (Looper.myLooper() == mainLooper) {
+            callback.onLanguageCenterReady(this, language, Status.READY);
 
         } else {
-            register(callback, mOneShotCallbacks);
+            new Handler(mainLooper).post(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onLanguageCenterReady(LanguageCenter.this, language, Status.READY);
+                }
+            });
         }
     }
 
@@ -608,53 +801,31 @@ public final class LanguageCenter implements UpdateCallback {
         unregister(callback, mPersistentCallbacks);
     }
 
-    private void register(final OnLanguageCenterReadyCallback target, final List<WeakReference<OnLanguageCenterReadyCallback>> callbacks) {
-        purgeCallbacks();
-
-        for (final WeakReference<OnLanguageCenterReadyCallback> callback : callbacks) {
-            if (target == callback.get()) {
-                // The callback is already registered. This probably means that someone made a boo boo
-                Logger.w("Callback (%s) was already registered", target.getClass().getSimpleName());
-                return;
-            }
+    private void register(final OnLanguageCenterReadyCallback target, final LCCallbackRegistry<OnLanguageCenterReadyCallback> callbacks) {
+        final boolean added;
+        synchronized (mCallbackLock) {
+            added = callbacks.add(target);
         }
 
-        callbacks.add(new WeakReference<>(target));
+        if (!added) {
+            // The callback is already registered. This probably means that someone made a boo boo
+            Logger.w("Callback (%s) was already registered", target.getClass().getSimpleName());
+        }
     }
 
-    private void unregister(final OnLanguageCenterReadyCallback target, final List<WeakReference<OnLanguageCenterReadyCallback>> callbacks) {
-        for (int i = callbacks.size() - 1; i >= 0; i--) {
-            final WeakReference<OnLanguageCenterReadyCallback> callback = callbacks.get(i);
-            if (target == callback.get()) {
-                callbacks.remove(i);
-                break;
-            }
+    private void unregister(final OnLanguageCenterReadyCallback target, final LCCallbackRegistry<OnLanguageCenterReadyCallback> callbacks) {
+        synchronized (mCallbackLock) {
+            callbacks.remove(target);
         }
     }
 
-    private void notify(String language, Status status, final List<WeakReference<OnLanguageCenterReadyCallback>> callbacks) {
+    private void notify(String language, Status status, final WeakReference<OnLanguageCenterReadyCallback>[] callbacks) {
         for (final WeakReference<OnLanguageCenterReadyCallback> callback : callbacks) {
             final OnLanguageCenterReadyCallback ref = callback.get();
             if (ref != null) {
-                callback.get().onLanguageCenterReady(this, language, status);
-            }
-        }
-    }
-
-    private void purgeCallbacks() {
-        purgeCallbacks(mOneShotCallbacks);
-        purgeCallbacks(mPersistentCallbacks);
-    }
-
-    private void purgeCallbacks(final List<WeakReference<OnLanguageCenterReadyCallback>> callbacks) {
-        final List<WeakReference<OnLanguageCenterReadyCallback>> dead = new ArrayList<>();
-        for (final WeakReference<OnLanguageCenterReadyCallback> callback : callbacks) {
-            if (callback.get() == null) {
-                dead.add(callback);
+                ref.onLanguageCenterReady(this, language, status);
             }
         }
-
-        callbacks.removeAll(dead);
     }
 
     public LanguageCenter setDebugMode(boolean debugMode) {
@@ -670,6 +841,172 @@ public final class LanguageCenter implements UpdateCallback {
         return sInstance;
     }
 
+    /**
+     * Make LanguageCenter derive its HTTP client from the app's client, so it shares its connection pool, dispatcher threads and TLS sessions.
+     * LanguageCenter adds its own authentication, cache and interceptors to the derived client, and leaves the app's client unchanged.
+     * This must be set right after {@link #with(Context)}, before the first request.
+     *
+     * @param client the app's client
+     */
+    public LanguageCenter setHttpClient(@NonNull OkHttpClient client) {
+        if (mNoop) {
+            return this;
+        }
+
+        if (!mService.setHttpClient(client)) {
+            Logger.e("Language Center HTTP client must be set before the first request");
+        }
+        return this;
+    }
+
+    /**
+     * Configure how failed requests are retried. Retries back off exponentially with random jitter, up to the max delay.
+     * Default is 5 retries, starting at 1 second, with a max delay of 60 seconds.
+     *
+     * @param maxRetries  the max number of retries per request
+     * @param baseDelayMs the max delay before the first retry
+     * @param maxDelayMs  the max delay before any retry
+     */
+    public LanguageCenter setRetryPolicy(int maxRetries, long baseDelayMs, long maxDelayMs) {
+        if (mNoop) {
+            return this;
+        }
+
+        mService.setRetryPolicy(maxRetries, baseDelayMs, maxDelayMs);
+        return this;
+    }
+
+    /**
+     * Download the translations of these languages in the background, in addition to the current language,
+     * so switching to one of them doesn't have to wait for the network.
+     * Languages are only prefetched once the app has been in the background for a while, on unmetered networks,
+     * while the device is charging or has plenty of battery.
+     *
+     * @param languages language codes according to ISO 639-1. Pass none to disable.
+     */
+    public LanguageCenter setPrefetchLanguages(@NonNull String... languages) {
+        if (mNoop) {
+            return this;
+        }
+
+        mService.getPrefetchPolicy().setLanguages(languages);
+        return this;
+    }
+
+    /**
+     * Download the translations of recently used languages in the background, in addition to the current language,
+     * so switching back to one of them doesn't have to wait for the network.
+     * Languages are only prefetched once the app has been in the background for a while, on unmetered networks,
+     * while the device is charging or has plenty of battery.
+     *
+     * @param maxAgeMs prefetch languages used within this time, e.g. 30 days. 0 to disable, which is default.
+     */
+    public LanguageCenter setPrefetchRecentLanguages(long maxAgeMs) {
+        if (mNoop) {
+            return this;
+        }
+
+        mService.getPrefetchPolicy().setRecentLanguages(maxAgeMs);
+        return this;
+    }
+
+    /**
+     * Skip the network at startup if the language list was checked within this time, and use the persisted translations right away.
+     * Outside the TTL, LanguageCenter is still ready right away if translations have been persisted, and updates them in the background.
+     * Default is 0, which always waits for the language list at startup. Set this right after {@link #with(Context)}, before the startup update runs.
+     *
+     * @param ttlMs how long a check of the language list is trusted, in milliseconds
+     */
+    public LanguageCenter setFreshnessTtl(long ttlMs) {
+        if (mNoop) {
+            return this;
+        }
+
+        mFreshnessTtlMs = Math.max(0, ttlMs);
+        return this;
+    }
+
+    /**
+     * Download translations in pages. Each page is persisted and used as soon as it arrives,
+     * and an interrupted download resumes from the next page, instead of starting over.
+     * The server must support the <i>cursor</i> and <i>limit</i> parameters of the strings endpoint, and return the cursor of the next page
+     * in the X-Next-Cursor header. Default is 0, which downloads all translations in a single response.
+     * <p>
+     * Persisting a page rewrites the language's whole pack, so the more pages a download has, the more it costs to write.
+     * The first page of a download has this many translations, and each following page twice as many as the one before,
+     * up to 8 times this size. Pick a size that downloads in a few seconds on a slow connection.
+     *
+     * @param pageSize the number of translations in the first page, or 0 to disable
+     */
+    public LanguageCenter setPageSize(int pageSize) {
+        if (mNoop) {
+            return this;
+        }
+
+        mService.setPageSize(pageSize);
+        return this;
+    }
+
+    /**
+     * Get progress updates of paginated downloads of the current language. See {@link #setPageSize(int)}.
+     *
+     * @param callback the callback, or null to remove it. NOTE: This is a strong reference!
+     */
+    public LanguageCenter setProgressCallback(@Nullable OnLanguageCenterProgressCallback callback) {
+        mProgressCallback = callback;
+        return this;
+    }
+
+    /**
+     * Download only the translations that changed since the last update, instead of all translations of the language.
+     * Default is true. Disable this if the LanguageCenter server doesn't support the <i>since</i> parameter of the strings endpoint.
+     */
+    public LanguageCenter setIncrementalUpdates(boolean incrementalUpdates) {
+        if (mNoop) {
+            return this;
+        }
+
+        mService.setIncrementalUpdates(incrementalUpdates);
+        return this;
+    }
+
+    /**
+     * Request the translations of the last used language at the same time as the language list, instead of waiting for the language list to confirm that they are needed.
+     * This saves a round trip when the language has changed, at the cost of a wasted request when it hasn't. Default is false.
+     * How often the speculative download was used is counted by {@link #getSpeculationStats()}.
+     */
+    public LanguageCenter setSpeculativeDownloads(boolean speculativeDownloads) {
+        if (mNoop) {
+            return this;
+        }
+
+        mService.setSpeculativeDownloads(speculativeDownloads);
+        return this;
+    }
+
+    /**
+     * @return Statistics on how many requests were answered by the HTTP cache or with 304 Not Modified, and the bytes saved. Null in no-op mode.
+     */
+    @Nullable
+    public LCCacheStats getCacheStats() {
+        if (mNoop) {
+            return null;
+        }
+        return mService.getCacheStats();
+    }
+
+    /**
+     * @return Statistics on how many speculative downloads were made, and how many of them were used. Null in no-op mode.
+     * See {@link #setSpeculativeDownloads(boolean)}.
+     */
+    @Nullable
+    public LCSpeculationStats getSpeculationStats() {
+        if (mNoop) {
+            return null;
+        }
+        return mService.getSpeculationStats();
+    }
+
     public boolean isDebugMode() {
         if (mNoop) {
             return false;
@@ -0,0 +1,16 @@
+package com.novasa.languagecenter.interfaces;
+
+import androidx.annotation.NonNull;
+
+import com.novasa.languagecenter.LanguageCenter;
+
+public interface OnLanguageCenterProgressCallback {
+
+    /**
+     * Called each time a page of a paginated download has been persisted. The translations downloaded so far are already in use.
+     *
+     * @param downloaded the number of translations downloaded so far
+     * @param total      the total number of translations to download, or -1 if the server didn't say
+     */
+    void onLanguageCenterProgress(@NonNull LanguageCenter languageCenter, @NonNull String language, int downloaded, int total);
+}
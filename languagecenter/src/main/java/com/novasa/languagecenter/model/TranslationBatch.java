@@ -0,0 +1,343 @@
+package com.novasa.languagecenter.model;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A list of translations, as key to value, read straight from a translations response without creating a {@link Translation} per entry.
+ * Deleted translations have a null value.
+ * <p>
+ * Entries are buffered in memory, up to about {@value #RUN_BYTES} bytes. With a run directory, a full buffer is sorted by key
+ * and spilled to a run file, so a batch never holds more than one buffer, however large the response is.
+ * The runs are read back in key order, and merged into the translation pack without ever building a map of the whole batch.
+ * <p>
+ * A batch owns its run files until it is {@link #close() closed}.
+ */
+public final class TranslationBatch implements Closeable {
+
+    /**
+     * Reads the entries of a run in key order. Every key is canonical and occurs once, with the value that was added last.
+     */
+    public interface Reader extends Closeable {
+
+        /**
+         * @return false if there are no more entries
+         */
+        boolean next() throws IOException;
+
+        /**
+         * @return the canonical key of the current entry
+         */
+        @NonNull
+        String getKey();
+
+        /**
+         * @return the UTF-8 encoded value of the current entry, or null if the translation was deleted
+         */
+        @Nullable
+        byte[] getValue();
+    }
+
+    /** Name of the run directory in the cache directory. Runs left there by a process that died can be deleted on the next start. */
+    public static final String RUN_DIRECTORY = "languagecenter-runs";
+
+    /** Roughly the bytes buffered before the buffer is spilled to a run */
+    private static final int RUN_BYTES = 256 * 1024;
+
+    /** Estimated bytes per buffered entry, on top of its key and value */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return a.mKey.compareTo(b.mKey);
+        }
+    };
+
+    private static final class Entry {
+
+        final String mKey;
+        final byte[] mValue;
+
+        Entry(String key, byte[] value) {
+            mKey = key;
+            mValue = value;
+        }
+    }
+
+    @Nullable
+    private final File mRunDirectory;
+    private final List<File> mRuns = new ArrayList<>();
+    private final ArrayList<Entry> mBuffer = new ArrayList<>();
+    private int mBufferBytes;
+    private int mSize;
+
+    /**
+     * A batch that is kept in memory.
+     */
+    public TranslationBatch() {
+        this((File) null);
+    }
+
+    /**
+     * @param runDirectory the directory to spill runs to, or null to keep the batch in memory
+     */
+    public TranslationBatch(@Nullable File runDirectory) {
+        mRunDirectory = runDirectory;
+    }
+
+    /**
+     * A batch of the given translations, kept in memory.
+     */
+    public TranslationBatch(@NonNull Map<String, String> translations) {
+        this((File) null);
+        for (final Map.Entry<String, String> e : translations.entrySet()) {
+            add(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * The canonical form of a translation key. Keys are matched case insensitively.
+     */
+    @NonNull
+    public static String canonicalKey(@NonNull String key) {
+        for (int i = 0, c = key.length(); i < c; i++) {
+            final char ch = key.charAt(i);
+            if (Character.toLowerCase(ch) != ch) {
+                final char[] chars = key.toCharArray();
+                for (int j = i; j < c; j++) {
+                    chars[j] = Character.toLowerCase(chars[j]);
+                }
+                return new String(chars);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Add a translation. A later translation with the same key replaces it.
+     *
+     * @param value the translation, or null if it was deleted
+     * @throws IOException if the buffer was full, and could not be spilled to a run
+     */
+    public void put(@NonNull String key, @Nullable String value) throws IOException {
+        add(key, value);
+
+        if (mRunDirectory != null && mBufferBytes >= RUN_BYTES) {
+            spill();
+        }
+    }
+
+    private void add(String key, String value) {
+        final Entry entry = new Entry(canonicalKey(key), value != null ? value.getBytes(UTF8) : null);
+        mBuffer.add(entry);
+        mBufferBytes += ENTRY_OVERHEAD + 2 * entry.mKey.length() + (entry.mValue != null ? entry.mValue.length : 0);
+        mSize++;
+    }
+
+    /**
+     * @return the number of translations added, including deleted translations and repeated keys
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Sort the buffer, and drop every entry that is replaced by a later entry with the same key.
+     */
+    private List<Entry> sortBuffer() {
+        // The sort is stable, so the last entry of a key is the one that was added last
+        Collections.sort(mBuffer, ORDER);
+
+        final List<Entry> sorted = new ArrayList<>(mBuffer.size());
+        for (int i = 0, c = mBuffer.size(); i < c; i++) {
+            final Entry entry = mBuffer.get(i);
+            if (i + 1 == c || !mBuffer.get(i + 1).mKey.equals(entry.mKey)) {
+                sorted.add(entry);
+            }
+        }
+        return sorted;
+    }
+
+    private void spill() throws IOException {
+        if (!mRunDirectory.isDirectory() && !mRunDirectory.mkdirs()) {
+            throw new IOException("Could not create run directory: " + mRunDirectory);
+        }
+
+        final File run = File.createTempFile("run", ".tmp", mRunDirectory);
+        mRuns.add(run);
+
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run)));
+        try {
+            for (final Entry entry : sortBuffer()) {
+                final byte[] key = entry.mKey.getBytes(UTF8);
+                out.writeInt(key.length);
+                out.write(key);
+
+                if (entry.mValue != null) {
+                    out.writeInt(entry.mValue.length);
+                    out.write(entry.mValue);
+
+                } else {
+                    out.writeInt(-1);
+                }
+            }
+
+        } finally {
+            out.close();
+        }
+
+        mBuffer.clear();
+        mBufferBytes = 0;
+    }
+
+    /**
+     * Open a reader for each run, in the order the runs were added. For a key in more than one run, the entry of the last run wins.
+     * The readers must be closed.
+     */
+    @NonNull
+    public List<Reader> openReaders() throws IOException {
+        final List<Reader> readers = new ArrayList<>(mRuns.size() + 1);
+        try {
+            for (final File run : mRuns) {
+                readers.add(new RunReader(run));
+            }
+
+        } catch (IOException e) {
+            for (final Reader reader : readers) {
+                reader.close();
+            }
+            throw e;
+        }
+
+        if (!mBuffer.isEmpty()) {
+            readers.add(new BufferReader(sortBuffer()));
+        }
+        return readers;
+    }
+
+    /**
+     * Delete the runs, and drop the buffer.
+     */
+    @Override
+    public void close() {
+        for (final File run : mRuns) {
+            //noinspection ResultOfMethodCallIgnored
+            run.delete();
+        }
+        mRuns.clear();
+        mBuffer.clear();
+        mBufferBytes = 0;
+    }
+
+    private static final class BufferReader implements Reader {
+
+        private final List<Entry> mEntries;
+        private int mIndex = -1;
+
+        BufferReader(List<Entry> entries) {
+            mEntries = entries;
+        }
+
+        @Override
+        public boolean next() {
+            return ++mIndex < mEntries.size();
+        }
+
+        @NonNull
+        @Override
+        public String getKey() {
+            return mEntries.get(mIndex).mKey;
+        }
+
+        @Nullable
+        @Override
+        public byte[] getValue() {
+            return mEntries.get(mIndex).mValue;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class RunReader implements Reader {
+
+        private final DataInputStream mIn;
+        private String mKey;
+        private byte[] mValue;
+
+        RunReader(File run) throws IOException {
+            mIn = new DataInputStream(new BufferedInputStream(new FileInputStream(run)));
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            final int keyLength;
+            try {
+                keyLength = mIn.readInt();
+
+            } catch (EOFException e) {
+                return false;
+            }
+
+            if (keyLength < 0) {
+                throw new IOException("Invalid run entry");
+            }
+
+            final byte[] key = new byte[keyLength];
+            mIn.readFully(key);
+            mKey = new String(key, UTF8);
+
+            final int valueLength = mIn.readInt();
+            if (valueLength >= 0) {
+                mValue = new byte[valueLength];
+                mIn.readFully(mValue);
+
+            } else {
+                mValue = null;
+            }
+            return true;
+        }
+
+        @NonNull
+        @Override
+        public String getKey() {
+            return mKey;
+        }
+
+        @Nullable
+        @Override
+        public byte[] getValue() {
+            return mValue;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mIn.close();
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.novasa.languagecenter.service;
 
 import com.novasa.languagecenter.model.Language;
 import com.novasa.languagecenter.model.Translation;
+import com.novasa.languagecenter.model.TranslationBatch;
 
 import java.util.List;
 
@@ -10,9 +11,12 @@ import retrofit2.Call;
 import retrofit2.http.Field;
 import retrofit2.http.FormUrlEncoded;
 import retrofit2.http.GET;
+import retrofit2.http.Header;
+import retrofit2.http.Headers;
 import retrofit2.http.POST;
 import retrofit2.http.Path;
 import retrofit2.http.Query;
+import retrofit2.http.Tag;
 
 /**
  * Created by andersp on 28/09/16.
@@ -24,6 +28,18 @@ public interface LCApiService {
     @GET("strings")
     Call<List<Translation>> getTranslations(@Query("platform") String platform, @Query("language") String languagecode, @Query("indexing") String indexing, @Query("timestamp") String timestamp);
 
+    // get list of translations, conditionally on the validators of the translations we already have.
+    // since: only translations changed since this timestamp, including deleted translations. Omitted if null.
+    // Responses are persisted by LanguageCenter, so they are not stored in the HTTP cache.
+    // The response is streamed into a compact batch, see LCTranslationBatchConverterFactory.
+    // cursor, limit: download a page of at most limit translations, starting at cursor. Omitted if null.
+    // The cursor of the next page is in the X-Next-Cursor header of the response, which is absent on the last page.
+    @Headers("Cache-Control: no-store")
+    @GET("strings")
+    Call<TranslationBatch> getTranslations(@Query("platform") String platform, @Query("language") String languagecode, @Query("indexing") String indexing, @Query("timestamp") String timestamp, @Query("since") Long since,
+                                           @Header("If-None-Match") String etag, @Header("If-Modified-Since") String lastModified, @Tag LCCacheStats.ExpectedSize expectedSize,
+                                           @Query("cursor") String cursor, @Query("limit") Integer limit);
+
     // get list of available languages
     @GET("languages")
     Call<List<Language>> getLanguages(@Query("timestamp") String timestamp);
@@ -0,0 +1,125 @@
+package com.novasa.languagecenter.service;
+
+import androidx.annotation.NonNull;
+
+import java.net.HttpURLConnection;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Counts how many LanguageCenter requests were answered by the HTTP cache or by a 304 Not Modified,
+ * and how many response bytes that saved.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class LCCacheStats {
+
+    /**
+     * Request tag with the size of the response a conditional request was made against,
+     * for requests whose 304 Not Modified is handled by LanguageCenter instead of the HTTP cache.
+     */
+    public static final class ExpectedSize {
+
+        private final long mBytes;
+
+        public ExpectedSize(long bytes) {
+            mBytes = bytes;
+        }
+    }
+
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final AtomicInteger mCacheHits = new AtomicInteger();
+    private final AtomicInteger mNotModified = new AtomicInteger();
+    private final AtomicLong mBytesSaved = new AtomicLong();
+
+    LCCacheStats() {
+    }
+
+    /**
+     * @return the number of completed requests
+     */
+    public int getRequestCount() {
+        return mRequests.get();
+    }
+
+    /**
+     * @return the number of requests answered from the HTTP cache without contacting the server
+     */
+    public int getCacheHitCount() {
+        return mCacheHits.get();
+    }
+
+    /**
+     * @return the number of requests the server answered with 304 Not Modified
+     */
+    public int getNotModifiedCount() {
+        return mNotModified.get();
+    }
+
+    /**
+     * @return the number of response body bytes that didn't have to be downloaded. Responses of unknown size are not counted.
+     */
+    public long getBytesSaved() {
+        return mBytesSaved.get();
+    }
+
+    void record(@NonNull Request request, @NonNull Response response) {
+        mRequests.incrementAndGet();
+
+        final Response network = response.networkResponse();
+        final Response cached = response.cacheResponse();
+
+        if (network == null) {
+            if (cached != null) {
+                mCacheHits.incrementAndGet();
+                addBytesSaved(contentLength(cached));
+            }
+
+        } else if (network.code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            mNotModified.incrementAndGet();
+
+            if (cached != null) {
+                // Revalidated by the HTTP cache
+                addBytesSaved(contentLength(cached));
+
+            } else {
+                final ExpectedSize size = request.tag(ExpectedSize.class);
+                if (size != null) {
+                    addBytesSaved(size.mBytes);
+                }
+            }
+        }
+    }
+
+    private void addBytesSaved(long bytes) {
+        if (bytes > 0) {
+            mBytesSaved.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * @return the size of the response body as sent by the server, or -1 if unknown
+     */
+    static long contentLength(@NonNull Response response) {
+        final String length = response.header("Content-Length");
+        if (length != null) {
+            try {
+                return Long.parseLong(length);
+
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "requests: %d, cache hits: %d, not modified: %d, bytes saved: %d",
+                getRequestCount(), getCacheHitCount(), getNotModifiedCount(), getBytesSaved());
+    }
+}
@@ -1,11 +1,18 @@
 package com.novasa.languagecenter.service;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 import com.novasa.languagecenter.LanguageCenter;
+import com.novasa.languagecenter.model.TranslationBatch;
 
+import java.io.File;
 import java.io.IOException;
 
 import okhttp3.Authenticator;
+import okhttp3.Cache;
 import okhttp3.Credentials;
+import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
@@ -18,32 +25,80 @@ import retrofit2.converter.gson.GsonConverterFactory;
  */
 public final class LCRestClient {
 
+    private static final String CACHE_DIRECTORY = "languagecenter-http";
+    private static final long CACHE_SIZE = 1024 * 1024;
+
     private final LCApiService mService;
+    private final LCCacheStats mCacheStats = new LCCacheStats();
     private DebugInterceptor mDebugInterceptor;
 
     public LCRestClient(final String url, final String username, final String password) {
+        this(url, username, password, null);
+    }
 
-        final OkHttpClient.Builder http = new OkHttpClient.Builder()
-                .authenticator(new Auth(username, password));
+    /**
+     * @param cacheDirectory directory for the HTTP cache, e.g. {@link android.content.Context#getCacheDir()}. If null, responses are not cached.
+     */
+    public LCRestClient(final String url, final String username, final String password, @Nullable final File cacheDirectory) {
+        this(url, username, password, cacheDirectory, null);
+    }
+
+    /**
+     * @param cacheDirectory   directory for the HTTP cache, e.g. {@link android.content.Context#getCacheDir()}, and for the runs of large translation
+     *                         responses. If null, responses are not cached, and runs go to the temporary directory.
+     * @param client           a client to derive from, to share its connection pool and dispatcher. If null, a new client is created.
+     */
+    public LCRestClient(final String url, final String username, final String password, @Nullable final File cacheDirectory,
+                        @Nullable final OkHttpClient client) {
+
+        final OkHttpClient.Builder http = (client != null ? client.newBuilder() : new OkHttpClient.Builder())
+                .authenticator(new Auth(username, password))
+                .addInterceptor(new Interceptor() {
+                    @Override
+                    public Response intercept(@NonNull Chain chain) throws IOException {
+                        final Request request = chain.request();
+                        final Response response = chain.proceed(request);
+                        mCacheStats.record(request, response);
+                        return response;
+                    }
+                });
+
+        if (cacheDirectory != null) {
+            http.cache(new Cache(new File(cacheDirectory, CACHE_DIRECTORY), CACHE_SIZE));
+        }
 
         if (LanguageCenter.DEBUGGABLE) {
             http.addInterceptor(mDebugInterceptor = new DebugInterceptor());
             setDebugMode(false);
         }
 
-        final Retrofit builder = new Retrofit.Builder()
+        final File runDirectory = new File(cacheDirectory != null ? cacheDirectory : new File(System.getProperty("java.io.tmpdir")), TranslationBatch.RUN_DIRECTORY);
+
+        mService = new Retrofit.Builder()
                 .client(http.build())
                 .baseUrl(url)
+                .addConverterFactory(new LCTranslationBatchConverterFactory(runDirectory))
                 .addConverterFactory(GsonConverterFactory.create())
-                .build();
-
-        mService = builder.create(LCApiService.class);
+                .build()
+                .create(LCApiService.class);
     }
 
     public LCApiService getApiService() {
         return mService;
     }
 
+    public LCCacheStats getCacheStats() {
+        return mCacheStats;
+    }
+
+    /**
+     * @return the size of the response body as it was sent by the server, or -1 if unknown or if the response came from the cache
+     */
+    public static long getNetworkContentLength(@NonNull retrofit2.Response<?> response) {
+        final Response network = response.raw().networkResponse();
+        return network != null ? LCCacheStats.contentLength(network) : -1;
+    }
+
     public void setDebugMode(boolean debug) {
         if (mDebugInterceptor != null) {
             mDebugInterceptor.setPrintRequestBody(debug)
@@ -0,0 +1,103 @@
+package com.novasa.languagecenter.service;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.novasa.languagecenter.model.TranslationBatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import okhttp3.ResponseBody;
+import retrofit2.Converter;
+import retrofit2.Retrofit;
+
+/**
+ * Reads a translations response into a {@link TranslationBatch} with a {@link JsonReader}, one entry at a time, straight from the response stream.
+ * Only the key, value and deleted flag of each entry are kept, and everything else is skipped without being parsed into objects.
+ * <p>
+ * With a run directory, the entries are spilled to sorted runs as the batch fills up, so a response of any size is parsed with a bounded buffer.
+ */
+final class LCTranslationBatchConverterFactory extends Converter.Factory {
+
+    private static final String FIELD_KEY = "key";
+    private static final String FIELD_VALUE = "value";
+    private static final String FIELD_DELETED = "deleted";
+
+    private final Converter<ResponseBody, TranslationBatch> mConverter = new Converter<ResponseBody, TranslationBatch>() {
+        @Override
+        public TranslationBatch convert(@NonNull ResponseBody body) throws IOException {
+            final TranslationBatch batch = new TranslationBatch(mRunDirectory);
+            final JsonReader reader = new JsonReader(body.charStream());
+            boolean read = false;
+            try {
+                read(reader, batch);
+                read = true;
+                return batch;
+
+            } finally {
+                reader.close();
+
+                if (!read) {
+                    // Delete the runs spilled so far
+                    batch.close();
+                }
+            }
+        }
+    };
+
+    @Nullable
+    private final File mRunDirectory;
+
+    /**
+     * @param runDirectory the directory to spill runs of large responses to, or null to keep responses in memory
+     */
+    LCTranslationBatchConverterFactory(@Nullable File runDirectory) {
+        mRunDirectory = runDirectory;
+    }
+
+    @Override
+    public Converter<ResponseBody, ?> responseBodyConverter(Type type, Annotation[] annotations, Retrofit retrofit) {
+        return type == TranslationBatch.class ? mConverter : null;
+    }
+
+    private static void read(JsonReader reader, TranslationBatch batch) throws IOException {
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String key = null;
+            String value = null;
+            boolean deleted = false;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+
+                } else if (FIELD_KEY.equals(name)) {
+                    key = reader.nextString();
+
+                } else if (FIELD_VALUE.equals(name)) {
+                    value = reader.nextString();
+
+                } else if (FIELD_DELETED.equals(name)) {
+                    deleted = reader.nextBoolean();
+
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (key != null) {
+                batch.put(key, deleted ? null : value);
+            }
+        }
+        reader.endArray();
+    }
+}
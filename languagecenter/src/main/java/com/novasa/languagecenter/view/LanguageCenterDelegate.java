@@ -15,11 +15,18 @@ class LanguageCenterDelegate implements OnLanguageCenterReadyCallback {
     private String mKey;
     private String mFallback;
     private String mComment;
+    private String mText;
 
     private String mHintKey;
     private String mHintFallback;
     private String mHintComment;
 
+    /** True while waiting in the refresh queue */
+    boolean mQueued;
+
+    /** True if the view was detached when the refresh queue got to it */
+    boolean mStale;
+
     LanguageCenterDelegate(@NonNull TextView textView) {
         mTextView = textView;
 
@@ -77,10 +84,18 @@ class LanguageCenterDelegate implements OnLanguageCenterReadyCallback {
     void updateTranslation() {
         if (!mTextView.isInEditMode() && !TextUtils.isEmpty(mKey)) {
             final String text = LanguageCenter.getInstance().getTranslation(mKey, mFallback, mComment);
+            mText = text;
             mTextView.setText(text);
         }
     }
 
+    /**
+     * @return the translation key if the text is the current translation, otherwise null
+     */
+    String getKey(String text) {
+        return mText != null && mText.equals(text) ? mKey : null;
+    }
+
     void updateHintTranslation() {
         if (!mTextView.isInEditMode() && mTextView instanceof EditText && !TextUtils.isEmpty(mHintKey)) {
             final String hint = LanguageCenter.getInstance().getTranslation(mHintKey, mHintFallback, mHintComment);
@@ -88,9 +103,24 @@ class LanguageCenterDelegate implements OnLanguageCenterReadyCallback {
         }
     }
 
+    @NonNull
+    TextView getView() {
+        return mTextView;
+    }
+
+    void refresh() {
+        updateTranslation();
+        updateHintTranslation();
+    }
+
     void onAttach() {
         if (!mTextView.isInEditMode()) {
             LanguageCenter.getInstance().registerPersistentCallback(this);
+
+            if (mStale) {
+                mStale = false;
+                refresh();
+            }
         }
     }
 
@@ -103,8 +133,8 @@ class LanguageCenterDelegate implements OnLanguageCenterReadyCallback {
     @Override
     public void onLanguageCenterReady(@NonNull LanguageCenter languageCenter, @NonNull String language, @NonNull LanguageCenter.Status status) {
         if (status == LanguageCenter.Status.READY) {
-            updateTranslation();
-            updateHintTranslation();
+            // Refreshing hundreds of views at once would drop frames, so they are refreshed over the next frames, visible views first
+            LanguageCenterRefreshQueue.enqueue(this);
         }
     }
 }
@@ -0,0 +1,75 @@
+package com.novasa.languagecenter.view;
+
+import android.text.Html;
+import android.text.Spanned;
+import android.text.SpannedString;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.novasa.languagecenter.LanguageCenter;
+
+/**
+ * Parsed HTML translations, shared by all views.
+ * <p>
+ * Entries are cached per translation key, and the cache is cleared when the language or the translations change,
+ * so rebinding a view or refreshing it after an update doesn't parse the HTML again.
+ * The cached text is immutable, so it can be set on several views at once.
+ */
+final class LanguageCenterHtmlCache {
+
+    private static final int CACHE_SIZE = 64;
+
+    private static final class Entry {
+
+        final String mSource;
+        final Spanned mSpanned;
+
+        Entry(String source, Spanned spanned) {
+            mSource = source;
+            mSpanned = spanned;
+        }
+    }
+
+    private static final LruCache<String, Entry> sCache = new LruCache<>(CACHE_SIZE);
+
+    private static String sLanguage;
+    private static int sVersion;
+
+    private LanguageCenterHtmlCache() {
+    }
+
+    /**
+     * Parse HTML text.
+     *
+     * @param key    the translation key of the text, or null if the text is not a translation, in which case it's not cached
+     * @param source the HTML text
+     * @return the parsed text
+     */
+    @NonNull
+    static Spanned fromHtml(@Nullable String key, @NonNull String source) {
+        if (key == null) {
+            return Html.fromHtml(source);
+        }
+
+        final LanguageCenter languageCenter = LanguageCenter.getInstance();
+        validate(languageCenter.getLanguage(), languageCenter.getTranslationVersion());
+
+        Entry entry = sCache.get(key);
+        if (entry == null || !entry.mSource.equals(source)) {
+            entry = new Entry(source, new SpannedString(Html.fromHtml(source)));
+            sCache.put(key, entry);
+        }
+
+        return entry.mSpanned;
+    }
+
+    private static synchronized void validate(String language, int version) {
+        if (version != sVersion || !language.equals(sLanguage)) {
+            sCache.evictAll();
+            sLanguage = language;
+            sVersion = version;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.novasa.languagecenter.view;
+
+import android.graphics.Rect;
+import android.view.Choreographer;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.core.view.ViewCompat;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spreads the refresh of translated views after a language update over several frames, instead of refreshing them all in one.
+ * Each frame refreshes views until its time budget is spent, starting with the views that are visible on screen.
+ * The queue only holds weak references, so a view that is dropped while it waits is not kept alive by it.
+ * <p>
+ * Main thread only.
+ */
+final class LanguageCenterRefreshQueue {
+
+    /** Time spent refreshing views per frame, leaving most of the frame for measuring, layout and drawing */
+    private static final long FRAME_BUDGET_NS = 4000000;
+
+    private static final List<WeakReference<LanguageCenterDelegate>> sVisible = new ArrayList<>();
+    private static final List<WeakReference<LanguageCenterDelegate>> sHidden = new ArrayList<>();
+    private static final Rect sRect = new Rect();
+
+    private static int sVisibleIndex;
+    private static int sHiddenIndex;
+    private static boolean sScheduled;
+
+    private static final Choreographer.FrameCallback sFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            sScheduled = false;
+            refresh();
+        }
+    };
+
+    private LanguageCenterRefreshQueue() {}
+
+    /**
+     * Refresh the view of the delegate in one of the next frames. A delegate that is already queued is only refreshed once.
+     */
+    static void enqueue(@NonNull LanguageCenterDelegate delegate) {
+        if (delegate.mQueued) {
+            return;
+        }
+
+        delegate.mQueued = true;
+
+        final WeakReference<LanguageCenterDelegate> reference = new WeakReference<>(delegate);
+        final View view = delegate.getView();
+        if (view.isShown() && view.getGlobalVisibleRect(sRect)) {
+            sVisible.add(reference);
+
+        } else {
+            sHidden.add(reference);
+        }
+
+        if (!sScheduled) {
+            sScheduled = true;
+            Choreographer.getInstance().postFrameCallback(sFrameCallback);
+        }
+    }
+
+    private static void refresh() {
+        final long start = System.nanoTime();
+
+        // Refresh at least one view per frame, so we always make progress
+        do {
+            final WeakReference<LanguageCenterDelegate> reference;
+            if (sVisibleIndex < sVisible.size()) {
+                reference = sVisible.get(sVisibleIndex);
+                sVisible.set(sVisibleIndex++, null);
+
+            } else if (sHiddenIndex < sHidden.size()) {
+                reference = sHidden.get(sHiddenIndex);
+                sHidden.set(sHiddenIndex++, null);
+
+            } else {
+                break;
+            }
+
+            final LanguageCenterDelegate delegate = reference.get();
+            if (delegate == null) {
+                continue;
+            }
+
+            delegate.mQueued = false;
+
+            if (ViewCompat.isAttachedToWindow(delegate.getView())) {
+                delegate.refresh();
+
+            } else {
+                // Refreshed when it is attached again instead
+                delegate.mStale = true;
+            }
+
+        } while (System.nanoTime() - start < FRAME_BUDGET_NS);
+
+        if (sVisibleIndex < sVisible.size() || sHiddenIndex < sHidden.size()) {
+            // A refresh may have queued another view, and scheduled the next frame already
+            if (!sScheduled) {
+                sScheduled = true;
+                Choreographer.getInstance().postFrameCallback(sFrameCallback);
+            }
+
+        } else {
+            sVisible.clear();
+            sHidden.clear();
+            sVisibleIndex = 0;
+            sHiddenIndex = 0;
+        }
+    }
+}
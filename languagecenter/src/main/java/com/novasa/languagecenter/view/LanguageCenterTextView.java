@@ -3,7 +3,6 @@ package com.novasa.languagecenter.view;
 import android.content.Context;
 import android.content.res.TypedArray;
 import androidx.appcompat.widget.AppCompatTextView;
-import android.text.Html;
 import android.util.AttributeSet;
 
 import com.novasa.languagecenter.R;
@@ -83,7 +82,10 @@ public class LanguageCenterTextView extends AppCompatTextView {
     @Override
     public void setText(CharSequence text, BufferType type) {
         if (mHtml) {
-            super.setText(Html.fromHtml(text.toString()), type);
+            // This is called by the super constructor, before the delegate exists
+            final String source = text.toString();
+            final String key = mDelegate != null ? mDelegate.getKey(source) : null;
+            super.setText(LanguageCenterHtmlCache.fromHtml(key, source), type);
         } else {
             super.setText(text, type);
         }
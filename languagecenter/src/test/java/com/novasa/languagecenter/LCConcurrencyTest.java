@@ -0,0 +1,187 @@
+package com.novasa.languagecenter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Lookups from many threads, while new packs are published and the language is switched.
+ */
+public class LCConcurrencyTest {
+
+    private static final int KEYS = 2000;
+    private static final int REVISIONS = 20;
+    private static final long TIMEOUT_S = 60;
+    private static final String[] LANGUAGES = {"da", "en"};
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private LCTranslationsDB mDatabase;
+
+    private final AtomicBoolean mStop = new AtomicBoolean();
+    private final Queue<Throwable> mErrors = new ConcurrentLinkedQueue<>();
+
+    /** Counted down when the writer has written every revision, or a thread failed */
+    private final CountDownLatch mDone = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        final TestContext context = new TestContext(mFolder.getRoot());
+
+        // Lookups ask LanguageCenter about debug mode
+        LanguageCenter.noop(context);
+
+        mDatabase = new LCTranslationsDB(context);
+        for (final String language : LANGUAGES) {
+            mDatabase.write(language, LCTranslationsDBTest.batch(translations(language, 0)), false);
+        }
+        assertTrue(mDatabase.activateLanguage("da"));
+    }
+
+    @After
+    public void tearDown() {
+        mStop.set(true);
+    }
+
+    /**
+     * @return the translations of a revision. Every value names its language, key and revision, so a lookup can tell if it got the right one.
+     */
+    private static Map<String, String> translations(String language, int revision) {
+        final Map<String, String> translations = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            translations.put(key(i), language + " " + i + " " + revision);
+        }
+        return translations;
+    }
+
+    private static String key(int i) {
+        return "screen" + (i / 20) + ".label" + (i % 20);
+    }
+
+    private Thread start(final String name, final Runnable task) {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!mStop.get()) {
+                        task.run();
+                    }
+
+                } catch (Throwable t) {
+                    mErrors.add(t);
+                    mStop.set(true);
+                    mDone.countDown();
+                }
+            }
+        }, name);
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void lookupsWhilePublishing() throws Exception {
+        final AtomicLong lookups = new AtomicLong();
+        final AtomicLong writes = new AtomicLong();
+        final AtomicLong switches = new AtomicLong();
+
+        final List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++) {
+            final int seed = t;
+            threads.add(start("reader-" + t, new Runnable() {
+                int mNext = seed * 997;
+
+                @Override
+                public void run() {
+                    final int i = mNext++ % KEYS;
+                    final String translation = mDatabase.getTranslation(key(i), "fallback", null);
+
+                    // Always a value of the key, from one of the languages, never the fallback or another key's value
+                    final String[] parts = translation.split(" ");
+                    assertEquals(translation, 3, parts.length);
+                    assertTrue(translation, parts[0].equals("da") || parts[0].equals("en"));
+                    assertEquals(translation, String.valueOf(i), parts[1]);
+
+                    lookups.incrementAndGet();
+                }
+            }));
+        }
+
+        threads.add(start("writer", new Runnable() {
+            int mRevision;
+
+            @Override
+            public void run() {
+                mRevision++;
+                for (final String language : LANGUAGES) {
+                    try {
+                        // Alternate full downloads and changes
+                        final Map<String, String> translations = mRevision % 2 == 0
+                                ? translations(language, mRevision)
+                                : changes(language, mRevision);
+                        mDatabase.write(language, LCTranslationsDBTest.batch(translations), mRevision % 2 != 0);
+
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    }
+                }
+                if (writes.incrementAndGet() == REVISIONS) {
+                    mDone.countDown();
+                }
+            }
+        }));
+
+        threads.add(start("switcher", new Runnable() {
+            @Override
+            public void run() {
+                final String language = LANGUAGES[(int) (switches.incrementAndGet() % LANGUAGES.length)];
+                assertTrue(mDatabase.activateLanguage(language));
+                assertTrue(mDatabase.hasTranslations(language));
+                Thread.yield();
+            }
+        }));
+
+        final boolean done = mDone.await(TIMEOUT_S, TimeUnit.SECONDS);
+        mStop.set(true);
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        if (!mErrors.isEmpty()) {
+            throw new AssertionError(mErrors.peek());
+        }
+
+        final String counts = lookups.get() + " lookups, " + writes.get() + " revisions written, " + switches.get() + " language switches";
+        assertTrue("Timed out after " + counts, done);
+        assertTrue(counts, lookups.get() > 0);
+        assertTrue(counts, switches.get() > 0);
+    }
+
+    /**
+     * @return changes to a tenth of the keys
+     */
+    private static Map<String, String> changes(String language, int revision) {
+        final Map<String, String> changes = new HashMap<>();
+        for (int i = revision % 10; i < KEYS; i += 10) {
+            changes.put(key(i), language + " " + i + " " + revision);
+        }
+        return changes;
+    }
+}
@@ -0,0 +1,68 @@
+package com.novasa.languagecenter;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LCFormatterTest {
+
+    private final LCFormatter mFormatter = new LCFormatter();
+
+    private void assertFormats(String language, String format, Object... args) {
+        final String expected = String.format(new Locale(language), format, args);
+        assertEquals(format, expected, mFormatter.format(language, 1, "screen.label", format, args));
+
+        // Again from the cache
+        assertEquals(format, expected, mFormatter.format(language, 1, "screen.label", format, args));
+    }
+
+    @Test
+    public void formatsLikeStringFormat() {
+        assertFormats("en", "No specifiers");
+        assertFormats("en", "%s has %d items", "Cart", 3);
+        assertFormats("en", "%2$s before %1$s", "first", "second");
+        assertFormats("en", "%s and %<s again", "this");
+        assertFormats("en", "100%% sure%n");
+        assertFormats("en", "%.2f kr.", 12.5);
+        assertFormats("en", "%,d", 1234567L);
+        assertFormats("en", "%05d|%-6s|%x", 42, "ab", 255);
+        assertFormats("en", "%b %c %S", null, 'x', "loud");
+        assertFormats("en", "%s", (Object) null);
+        assertFormats("en", "%d %d", BigInteger.TEN, (short) 7);
+        assertFormats("en", "%.1f", new BigDecimal("2.25"));
+        assertFormats("da", "%,.2f", 1234.5);
+        assertFormats("ar", "%d", 123);
+    }
+
+    @Test
+    public void invalidFormatsReturnNull() {
+        assertNull(mFormatter.format("en", 1, "screen.label", "%d", new Object[]{"not a number"}));
+        assertNull(mFormatter.format("en", 1, "screen.label", "%s %s", new Object[]{"one"}));
+        assertNull(mFormatter.format("en", 1, "screen.label", "%q", new Object[]{"x"}));
+        assertNull(mFormatter.format("en", 1, "screen.label", "100%", new Object[0]));
+        assertNull(mFormatter.format("en", 1, "screen.label", "%.f", new Object[]{1.0}));
+    }
+
+    @Test
+    public void sameKeyDifferentFormats() {
+        assertEquals("a 1", mFormatter.format("en", 1, "screen.label", "a %d", new Object[]{1}));
+        assertEquals("b 1", mFormatter.format("en", 1, "screen.label", "b %d", new Object[]{1}));
+        assertEquals("c 2", mFormatter.formatFallback("en", "screen.label", "c %d", new Object[]{2}));
+    }
+
+    @Test
+    public void withoutKey() {
+        assertEquals("Hi Bo", mFormatter.format("en", 1, null, "Hi %s", new Object[]{"Bo"}));
+        assertEquals("Hi Bo", mFormatter.format("en", 1, "", "Hi %s", new Object[]{"Bo"}));
+        assertEquals("Bye Bo", mFormatter.formatFallback("en", null, "Bye %s", new Object[]{"Bo"}));
+        assertEquals("Bye Bo", mFormatter.formatFallback("en", "", "Bye %s", new Object[]{"Bo"}));
+
+        // Templates without a key are not shared
+        assertEquals("Yo Bo", mFormatter.format("en", 1, null, "Yo %s", new Object[]{"Bo"}));
+    }
+}
@@ -0,0 +1,207 @@
+package com.novasa.languagecenter;
+
+import com.novasa.languagecenter.model.TranslationBatch;
+import com.novasa.languagecenter.service.LCApiService;
+import com.novasa.languagecenter.service.LCRestClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import retrofit2.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Paginated downloads against a stand-in for the server, which pages its translations by cursor and limit.
+ * The pages are persisted the way {@link LCService} persists them, since the service itself needs the main thread.
+ */
+public class LCPagedDownloadTest {
+
+    private static final String CODE = "da";
+    private static final int PAGE_SIZE = 100;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final PagedServer mPagedServer = new PagedServer(LCTranslationPackTest.translations(5000));
+
+    private MockWebServer mServer;
+    private LCApiService mApi;
+    private TestContext mContext;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.setDispatcher(mPagedServer);
+        mServer.start();
+
+        mApi = new LCRestClient(mServer.url("/").toString(), "user", "password").getApiService();
+        mContext = new TestContext(mFolder.getRoot());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+    }
+
+    /**
+     * Serves the translations sorted by key. The cursor is the index of the first translation of the page.
+     */
+    private static final class PagedServer extends Dispatcher {
+
+        private final List<Map.Entry<String, String>> mTranslations;
+        private final List<Integer> mLimits = Collections.synchronizedList(new ArrayList<Integer>());
+        private final List<String> mCursors = Collections.synchronizedList(new ArrayList<String>());
+
+        PagedServer(Map<String, String> translations) {
+            mTranslations = new ArrayList<>(new TreeMap<>(translations).entrySet());
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            final HttpUrl url = request.getRequestUrl();
+            if (!"/strings".equals(url.encodedPath())) {
+                return new MockResponse().setResponseCode(404);
+            }
+
+            final String cursor = url.queryParameter("cursor");
+            final String limit = url.queryParameter("limit");
+            mCursors.add(cursor);
+            mLimits.add(limit != null ? Integer.valueOf(limit) : null);
+
+            final int from = cursor != null ? Integer.parseInt(cursor) : 0;
+            final int to = limit != null ? Math.min(from + Integer.parseInt(limit), mTranslations.size()) : mTranslations.size();
+
+            final StringBuilder body = new StringBuilder("[");
+            for (int i = from; i < to; i++) {
+                final Map.Entry<String, String> e = mTranslations.get(i);
+                body.append(i > from ? "," : "")
+                        .append("{\"key\":\"").append(e.getKey()).append("\",\"value\":\"").append(e.getValue()).append("\"}");
+            }
+            body.append(']');
+
+            final MockResponse response = new MockResponse()
+                    .setHeader(LCValues.HEADER_TOTAL_COUNT, mTranslations.size())
+                    .setBody(body.toString());
+
+            if (to < mTranslations.size()) {
+                response.setHeader(LCValues.HEADER_NEXT_CURSOR, to);
+            }
+            return response;
+        }
+    }
+
+    /**
+     * Download pages the way the service does, starting at the cursor, and stop after at most the given number of pages.
+     *
+     * @return the cursor of the next page, or null if the download finished
+     */
+    private String download(LCTranslationsDB db, String cursor, int count, int pages) throws Exception {
+        int limit = PAGE_SIZE;
+
+        for (int page = 0; page < pages; page++) {
+            final Response<TranslationBatch> response = mApi.getTranslations(LCValues.PARAM_PLATFORM, CODE, LCValues.PARAM_INDEXING, LCValues.PARAM_TIMESTAMP,
+                    null, null, null, null, cursor, limit).execute();
+
+            assertTrue(response.isSuccessful());
+            assertEquals("5000", response.headers().get(LCValues.HEADER_TOTAL_COUNT));
+
+            // Every page after the first is merged into the pages before it
+            final TranslationBatch batch = response.body();
+            count += batch.size();
+            db.write(CODE, Collections.singletonList(batch), cursor != null);
+            batch.close();
+
+            cursor = response.headers().get(LCValues.HEADER_NEXT_CURSOR);
+            if (cursor == null) {
+                db.clearSyncProgress(CODE);
+                return null;
+            }
+
+            db.setSyncProgress(CODE, 0, cursor, 1000, count);
+            limit = LCService.nextPageLimit(PAGE_SIZE, limit);
+        }
+        return cursor;
+    }
+
+    private void assertComplete(LCTranslationsDB db) throws Exception {
+        final LCTranslationPack pack = LCTranslationPack.open(CODE, new File(mFolder.getRoot(), "languagecenter/" + CODE + ".pack"));
+        assertEquals(5000, pack.size());
+        for (final Map.Entry<String, String> e : mPagedServer.mTranslations) {
+            assertEquals(e.getValue(), pack.get(e.getKey()));
+        }
+        assertNull(db.getSyncCursor(CODE, 0));
+    }
+
+    @Test
+    public void pagesGrow() throws Exception {
+        final LCTranslationsDB db = new LCTranslationsDB(mContext);
+
+        assertNull(download(db, null, 0, Integer.MAX_VALUE));
+        assertComplete(db);
+
+        // Pages double up to 8 times the page size, so 5000 translations take 9 pages rather than 50
+        final List<Integer> expected = new ArrayList<>();
+        for (final int limit : new int[]{100, 200, 400, 800, 800, 800, 800, 800, 800}) {
+            expected.add(limit);
+        }
+        assertEquals(expected, mPagedServer.mLimits);
+        assertNull(mPagedServer.mCursors.get(0));
+        assertEquals("100", mPagedServer.mCursors.get(1));
+    }
+
+    @Test
+    public void resumesFromCursor() throws Exception {
+        final String cursor = download(new LCTranslationsDB(mContext), null, 0, 3);
+        assertEquals("700", cursor);
+
+        // After a restart, the download resumes where it left off
+        final LCTranslationsDB db = new LCTranslationsDB(mContext);
+        assertEquals("700", db.getSyncCursor(CODE, 0));
+        assertEquals(700, db.getSyncCount(CODE));
+        assertEquals(1000, db.getSyncTarget(CODE));
+
+        // But not for a download of something else
+        assertNull(db.getSyncCursor(CODE, 1234));
+
+        final int requests = mPagedServer.mCursors.size();
+        assertNull(download(db, db.getSyncCursor(CODE, 0), db.getSyncCount(CODE), Integer.MAX_VALUE));
+        assertEquals("700", mPagedServer.mCursors.get(requests));
+        assertComplete(db);
+
+        // No page was downloaded twice
+        int downloaded = 0;
+        for (final Integer limit : mPagedServer.mLimits) {
+            downloaded += limit;
+        }
+        assertTrue(downloaded - 5000 < 800);
+    }
+
+    @Test
+    public void pageLimits() {
+        assertEquals(200, LCService.nextPageLimit(100, 100));
+        assertEquals(800, LCService.nextPageLimit(100, 400));
+        assertEquals(800, LCService.nextPageLimit(100, 800));
+
+        // No overflow with huge pages
+        assertEquals(Integer.MAX_VALUE, LCService.nextPageLimit(1 << 30, 1 << 30));
+        assertEquals(Integer.MAX_VALUE, LCService.nextPageLimit(Integer.MAX_VALUE, Integer.MAX_VALUE));
+    }
+}
@@ -0,0 +1,71 @@
+package com.novasa.languagecenter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LCRetryPolicyTest {
+
+    private final LCRetryPolicy mPolicy = new LCRetryPolicy();
+
+    private void exhaust() {
+        for (int i = 0; i < 10; i++) {
+            mPolicy.onFailure();
+        }
+        assertEquals(-1, mPolicy.getRetryDelay(0, -1));
+    }
+
+    @Test
+    public void retriesUntilMaxRetries() {
+        mPolicy.configure(3, 1000, 60000);
+
+        for (int retry = 0; retry < 3; retry++) {
+            final long delay = mPolicy.getRetryDelay(retry, -1);
+            assertTrue(String.valueOf(delay), delay >= 0 && delay <= 1000 << retry);
+        }
+        assertEquals(-1, mPolicy.getRetryDelay(3, -1));
+    }
+
+    @Test
+    public void honoursRetryAfter() {
+        assertEquals(30000, mPolicy.getRetryDelay(0, 30000));
+
+        // Longer than we would ever back off
+        assertEquals(-1, mPolicy.getRetryDelay(0, 120000));
+    }
+
+    @Test
+    public void successesRefillBudget() {
+        exhaust();
+
+        for (int i = 0; i < 25; i++) {
+            mPolicy.onSuccess();
+        }
+        assertEquals(-1, mPolicy.getRetryDelay(0, -1));
+
+        mPolicy.onSuccess();
+        assertTrue(mPolicy.getRetryDelay(0, -1) >= 0);
+    }
+
+    @Test
+    public void timeRefillsBudget() {
+        exhaust();
+
+        // A token per 30 seconds, and retries resume above half the budget
+        mPolicy.refill(150000);
+        assertEquals(-1, mPolicy.getRetryDelay(0, -1));
+
+        mPolicy.refill(180000);
+        assertTrue(mPolicy.getRetryDelay(0, -1) >= 0);
+
+        // Never above the budget
+        mPolicy.refill(24 * 3600000L);
+        for (int i = 0; i < 4; i++) {
+            mPolicy.onFailure();
+        }
+        assertTrue(mPolicy.getRetryDelay(0, -1) >= 0);
+        mPolicy.onFailure();
+        assertEquals(-1, mPolicy.getRetryDelay(0, -1));
+    }
+}
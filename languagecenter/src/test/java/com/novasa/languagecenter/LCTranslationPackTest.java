@@ -0,0 +1,358 @@
+package com.novasa.languagecenter;
+
+import com.novasa.languagecenter.model.TranslationBatch;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LCTranslationPackTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    static Map<String, String> translations(int count) {
+        final Map<String, String> translations = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            translations.put("screen" + (i / 20) + ".label" + (i % 20), "Translation " + i + " æøå");
+        }
+        return translations;
+    }
+
+    static void write(File file, Map<String, String> translations) throws IOException {
+        final TranslationBatch batch = new TranslationBatch(translations);
+        try {
+            LCTranslationPack.write(file, batch.openReaders());
+
+        } finally {
+            batch.close();
+        }
+    }
+
+    static Map<String, String> read(TranslationBatch.Reader reader) throws IOException {
+        final Map<String, String> translations = new HashMap<>();
+        while (reader.next()) {
+            final byte[] value = reader.getValue();
+            translations.put(reader.getKey(), value != null ? new String(value, "UTF-8") : null);
+        }
+        return translations;
+    }
+
+    private LCTranslationPack write(Map<String, String> translations) throws Exception {
+        final File file = new File(mFolder.getRoot(), "en.pack");
+        write(file, translations);
+        return LCTranslationPack.open("en", file);
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        final Map<String, String> translations = translations(1000);
+        final LCTranslationPack pack = write(translations);
+
+        assertEquals(1000, pack.size());
+        assertTrue(pack.verify());
+
+        for (final Map.Entry<String, String> e : translations.entrySet()) {
+            assertEquals(e.getValue(), pack.get(e.getKey()));
+        }
+
+        assertEquals("Translation 21 æøå", pack.get("SCREEN1.Label1"));
+        assertNull(pack.get("screen1.label"));
+        assertNull(pack.get("screen1.label10x"));
+        assertNull(pack.get("missing"));
+        assertNull(pack.get(""));
+    }
+
+    @Test
+    public void read() throws Exception {
+        final LCTranslationPack pack = write(translations(100));
+
+        final Map<String, String> read = read(pack.read());
+
+        assertEquals(translations(100), read);
+    }
+
+    @Test
+    public void mergeSources() throws Exception {
+        final LCTranslationPack pack = write(translations(100));
+
+        final Map<String, String> first = new HashMap<>();
+        first.put("screen0.label0", "First");
+        first.put("screen0.label1", "First");
+        first.put("Screen9.Label0", "Added");
+
+        final Map<String, String> second = new HashMap<>();
+        second.put("SCREEN0.LABEL1", "Second");
+        second.put("screen4.label19", null);
+
+        final TranslationBatch a = new TranslationBatch(first);
+        final TranslationBatch b = new TranslationBatch(second);
+        final List<TranslationBatch.Reader> sources = new ArrayList<>();
+        sources.add(pack.read());
+        sources.addAll(a.openReaders());
+        sources.addAll(b.openReaders());
+
+        final File file = new File(mFolder.getRoot(), "merged.pack");
+        LCTranslationPack.write(file, sources);
+        final LCTranslationPack merged = LCTranslationPack.open("en", file);
+
+        // The last source wins, and a null value removes the key
+        assertEquals(100, merged.size());
+        assertEquals("First", merged.get("screen0.label0"));
+        assertEquals("Second", merged.get("screen0.label1"));
+        assertEquals("Added", merged.get("screen9.label0"));
+        assertNull(merged.get("screen4.label19"));
+        assertEquals("Translation 98 æøå", merged.get("screen4.label18"));
+        assertTrue(merged.verify());
+    }
+
+    @Test(expected = IOException.class)
+    public void unsortedSourceFails() throws Exception {
+        final List<TranslationBatch.Reader> sources = new ArrayList<>();
+        sources.add(new TranslationBatch.Reader() {
+
+            private final String[] mKeys = {"b", "a"};
+            private int mIndex = -1;
+
+            @Override
+            public boolean next() {
+                return ++mIndex < mKeys.length;
+            }
+
+            @Override
+            public String getKey() {
+                return mKeys[mIndex];
+            }
+
+            @Override
+            public byte[] getValue() {
+                return new byte[0];
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+
+        LCTranslationPack.write(new File(mFolder.getRoot(), "en.pack"), sources);
+    }
+
+    @Test
+    public void empty() throws Exception {
+        final LCTranslationPack pack = write(new HashMap<String, String>());
+
+        assertEquals(0, pack.size());
+        assertNull(pack.get("screen0.label0"));
+    }
+
+    @Test
+    public void smallKeySetsAlwaysWrite() throws Exception {
+        for (int count = 1; count <= 40; count++) {
+            for (int screen = 0; screen < 100; screen++) {
+                final Map<String, String> translations = new HashMap<>();
+                for (int i = 0; i < count; i++) {
+                    translations.put("screen" + screen + ".label" + i, "Translation " + i);
+                }
+
+                final LCTranslationPack pack = write(translations);
+                for (final Map.Entry<String, String> e : translations.entrySet()) {
+                    assertEquals(e.getValue(), pack.get(e.getKey()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void searchWithoutIndex() throws Exception {
+        // No minimal perfect hash function is found for these keys, so the pack is written without buckets
+        final Map<String, String> translations = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            translations.put("screen1945.label" + i, "Translation " + i);
+        }
+
+        final LCTranslationPack pack = write(translations);
+        final ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(new File(mFolder.getRoot(), "en.pack").toPath()));
+        assertEquals(0, header.getInt(12));
+
+        for (final Map.Entry<String, String> e : translations.entrySet()) {
+            assertEquals(e.getValue(), pack.get(e.getKey()));
+            assertEquals(e.getValue(), pack.get(e.getKey().toUpperCase()));
+            assertNull(pack.get(e.getKey() + "x"));
+        }
+
+        assertNull(pack.get(""));
+        assertNull(pack.get("a"));
+        assertNull(pack.get("screen1945.label"));
+        assertNull(pack.get("screen1945.label99"));
+        assertNull(pack.get("z"));
+        assertTrue(pack.verify());
+    }
+
+    @Test
+    public void damagedBodyMisses() throws Exception {
+        final Map<String, String> translations = translations(200);
+        final File file = new File(mFolder.getRoot(), "en.pack");
+        write(file, translations);
+
+        final byte[] original = Files.readAllBytes(file.toPath());
+        final Random random = new Random(42);
+        int damaged = 0;
+
+        for (int round = 0; round < 500; round++) {
+            // Damage the body behind the header, which open() doesn't check
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.write(original);
+                for (int i = 0; i < 8; i++) {
+                    raf.seek(40 + random.nextInt(original.length - 48));
+                    raf.writeByte(random.nextInt(256));
+                }
+            } finally {
+                raf.close();
+            }
+
+            final LCTranslationPack pack = LCTranslationPack.open("en", file);
+            for (final String key : translations.keySet()) {
+                pack.get(key);
+                pack.get(key + "x");
+            }
+
+            if (pack.isDamaged()) {
+                damaged++;
+                assertFalse(pack.verify());
+
+                try {
+                    read(pack.read());
+                } catch (IOException e) {
+                    // Expected, unless the damage is only in the index
+                }
+            }
+        }
+
+        assertTrue(damaged > 0);
+    }
+
+    @Test
+    public void lookupsDoNotAllocate() throws Exception {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        final Map<String, String> translations = translations(10000);
+        final LCTranslationPack pack = write(translations);
+
+        // The first keys in key order have the first ordinals, so their values all fit in the cache at once
+        final String[] sorted = new TreeMap<>(translations).keySet().toArray(new String[0]);
+        final String[] keys = Arrays.copyOf(sorted, LCTranslationPack.VALUE_CACHE_SIZE);
+        final String[] misses = new String[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            misses[i] = sorted[i] + ".missing";
+        }
+
+        // Decode every hot value once, and let the lookup get compiled
+        for (int round = 0; round < 5; round++) {
+            lookup(pack, keys, misses);
+        }
+
+        final long thread = Thread.currentThread().getId();
+        final long before = threads.getThreadAllocatedBytes(thread);
+        final int found = lookup(pack, keys, misses);
+        final long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertEquals(keys.length, found);
+
+        // 11024 lookups. Allow for the measurement itself, but not a single allocation per lookup.
+        assertTrue("Lookups allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    /** Keeps what is being measured reachable, since the JIT may consider a local dead before the measurement */
+    private Object mMeasured;
+
+    @Test
+    public void footprint() throws Exception {
+        final File file = new File(mFolder.getRoot(), "en.pack");
+        final StringBuilder measured = new StringBuilder();
+
+        for (final int count : new int[]{1000, 10000, 100000}) {
+            write(file, translations(count));
+
+            // What the translations took up when they were held in a map
+            long before = usedHeap();
+            mMeasured = translations(count);
+            final long mapHeap = usedHeap() - before;
+            mMeasured = null;
+
+            before = usedHeap();
+            final LCTranslationPack pack = LCTranslationPack.open("en", file);
+            mMeasured = pack;
+            final long coldHeap = usedHeap() - before;
+
+            // With every value decoded once. Only the cached values stay on the heap.
+            for (int i = 0; i < count; i++) {
+                assertTrue(pack.get("screen" + (i / 20) + ".label" + (i % 20)) != null);
+            }
+            final long warmHeap = usedHeap() - before;
+            mMeasured = null;
+
+            final ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            final double indexBits = 8.0 * (file.length() - 8 - header.getInt(20)) / count;
+
+            measured.append(String.format(Locale.US, "%n%d keys: map %d KB, pack %d KB on disk, index %.1f bits per key, %d KB heap when opened, %d KB heap with every value decoded",
+                    count, mapHeap / 1024, file.length() / 1024, indexBits, coldHeap / 1024, warmHeap / 1024));
+
+            // Measuring the heap is noisy, so only check the largest catalogue, and leniently
+            if (count == 100000) {
+                assertTrue("Index too large:" + measured, indexBits < 42);
+                assertTrue("Opened pack too large:" + measured, coldHeap < mapHeap / 100);
+                assertTrue("Decoded pack too large:" + measured, warmHeap < mapHeap / 50);
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static int lookup(LCTranslationPack pack, String[] keys, String[] misses) {
+        int found = 0;
+        for (final String key : keys) {
+            if (pack.get(key) != null) {
+                found++;
+            }
+        }
+        for (final String miss : misses) {
+            if (pack.get(miss) != null) {
+                found--;
+            }
+        }
+        return found;
+    }
+}
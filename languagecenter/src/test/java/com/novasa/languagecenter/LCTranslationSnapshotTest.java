@@ -0,0 +1,53 @@
+package com.novasa.languagecenter;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class LCTranslationSnapshotTest {
+
+    private static byte[] snapshot(int count, String... entries) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x4C43534E);
+        out.writeInt(1);
+        out.writeLong(1234);
+        out.writeInt(count);
+        for (final String entry : entries) {
+            final byte[] b = entry.getBytes("UTF-8");
+            out.writeInt(b.length);
+            out.write(b);
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void read() throws Exception {
+        final LCTranslationSnapshot snapshot = LCTranslationSnapshot.read(new ByteArrayInputStream(snapshot(2, "Screen.Title", "Titel", "screen.body", "Brødtekst")));
+
+        assertEquals(1234, snapshot.getTimestamp());
+        assertEquals(2, snapshot.getTranslations().size());
+        assertEquals("Titel", snapshot.getTranslations().get("screen.title"));
+        assertEquals("Brødtekst", snapshot.getTranslations().get("screen.body"));
+    }
+
+    @Test
+    public void damagedCountFailsWithIOException() throws Exception {
+        for (final int count : new int[]{Integer.MAX_VALUE, 0x40000000, 3}) {
+            try {
+                LCTranslationSnapshot.read(new ByteArrayInputStream(snapshot(count, "screen.title", "Titel")));
+                fail("Read " + count + " entries");
+
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+    }
+}
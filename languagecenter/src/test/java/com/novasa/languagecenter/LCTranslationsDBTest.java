@@ -0,0 +1,112 @@
+package com.novasa.languagecenter;
+
+import com.novasa.languagecenter.model.TranslationBatch;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LCTranslationsDBTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private TestContext mContext;
+
+    @Before
+    public void setUp() {
+        mContext = new TestContext(mFolder.getRoot());
+    }
+
+    private static List<TranslationBatch> batch(String... entries) {
+        final Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < entries.length; i += 2) {
+            map.put(entries[i], entries[i + 1]);
+        }
+        return batch(map);
+    }
+
+    static List<TranslationBatch> batch(Map<String, String> translations) {
+        return Collections.singletonList(new TranslationBatch(translations));
+    }
+
+    private LCTranslationPack pack(String languageCode) throws IOException {
+        return LCTranslationPack.open(languageCode, new File(mFolder.getRoot(), "languagecenter/" + languageCode + ".pack"));
+    }
+
+    @Test
+    public void incrementalMergesIntoPersisted() throws Exception {
+        final LCTranslationsDB db = new LCTranslationsDB(mContext);
+
+        db.write("da", batch("screen.title", "Titel", "screen.body", "Tekst"), false);
+        db.write("da", batch("screen.body", "Ny tekst", "screen.title", null, "screen.footer", "Fod"), true);
+
+        final LCTranslationPack pack = pack("da");
+        assertEquals(2, pack.size());
+        assertEquals("Ny tekst", pack.get("screen.body"));
+        assertEquals("Fod", pack.get("screen.footer"));
+    }
+
+    @Test
+    public void incrementalWithoutPersistedFails() throws Exception {
+        final LCTranslationsDB db = new LCTranslationsDB(mContext);
+
+        try {
+            db.write("da", batch("screen.title", "Titel"), true);
+            fail("Changes were written without the translations they change");
+
+        } catch (IOException e) {
+            // Expected
+        }
+
+        assertFalse(db.hasTranslations("da"));
+    }
+
+    @Test
+    public void incrementalOnDamagedPersistedFails() throws Exception {
+        new LCTranslationsDB(mContext).write("da", batch("screen.title", "Titel", "screen.body", "Tekst"), false);
+
+        // Damage the body, which opening the pack doesn't check
+        final File file = new File(mFolder.getRoot(), "languagecenter/da.pack");
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(raf.length() - 12);
+            raf.writeByte(raf.readByte() ^ 0xff);
+        } finally {
+            raf.close();
+        }
+
+        final LCTranslationsDB db = new LCTranslationsDB(mContext);
+        db.setLanguagePersistTime("da", 1000);
+        assertTrue(db.hasTranslations("da"));
+
+        try {
+            db.write("da", batch("screen.title", "Ny titel"), true);
+            fail("Changes were written without the translations they change");
+
+        } catch (IOException e) {
+            // Expected
+        }
+
+        assertFalse(db.hasTranslations("da"));
+        assertEquals(0, db.getLanguagePersistedTime("da"));
+
+        // A full download can start over
+        db.write("da", batch("screen.title", "Ny titel"), false);
+        assertEquals("Ny titel", pack("da").get("screen.title"));
+    }
+}
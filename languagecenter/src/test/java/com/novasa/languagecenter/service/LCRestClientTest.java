@@ -0,0 +1,117 @@
+package com.novasa.languagecenter.service;
+
+import com.novasa.languagecenter.model.TranslationBatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Map;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import retrofit2.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LCRestClientTest {
+
+    private MockWebServer mServer;
+    private LCApiService mApi;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+        mApi = new LCRestClient(mServer.url("/").toString(), "user", "password").getApiService();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+    }
+
+    private Response<TranslationBatch> getTranslations(Long since, String etag, String lastModified) throws Exception {
+        return mApi.getTranslations("android", "da", "key", "1", since, etag, lastModified, null, null, null).execute();
+    }
+
+    @Test
+    public void fullDownload() throws Exception {
+        mServer.enqueue(new MockResponse()
+                .setHeader("ETag", "\"v1\"")
+                .setBody("[{\"key\":\"screen.title\",\"value\":\"Titel\",\"comment\":{\"ignored\":[1,2]}},{\"key\":\"screen.body\",\"value\":\"Tekst\"}]"));
+
+        final Response<TranslationBatch> response = getTranslations(null, null, null);
+
+        final RecordedRequest request = mServer.takeRequest();
+        assertNull(request.getRequestUrl().queryParameter("since"));
+        assertNull(request.getHeader("If-None-Match"));
+        assertNull(request.getHeader("If-Modified-Since"));
+        assertEquals("no-store", request.getHeader("Cache-Control"));
+
+        assertTrue(response.isSuccessful());
+        assertEquals("\"v1\"", response.headers().get("ETag"));
+        assertEquals(2, response.body().size());
+        final Map<String, String> translations = LCTranslationBatchConverterFactoryTest.read(response.body());
+        assertEquals("Titel", translations.get("screen.title"));
+        assertEquals("Tekst", translations.get("screen.body"));
+    }
+
+    @Test
+    public void incrementalDownload() throws Exception {
+        mServer.enqueue(new MockResponse()
+                .setBody("[{\"key\":\"screen.title\",\"value\":\"Ny titel\"},"
+                        + "{\"key\":\"screen.body\",\"value\":\"Tekst\",\"deleted\":true},"
+                        + "{\"key\":\"screen.footer\",\"value\":null},"
+                        + "{\"value\":\"No key\"}]"));
+
+        final Response<TranslationBatch> response = getTranslations(1234L, "\"v1\"", "Sat, 17 Oct 2026 10:00:00 GMT");
+
+        final RecordedRequest request = mServer.takeRequest();
+        assertEquals("1234", request.getRequestUrl().queryParameter("since"));
+        assertEquals("da", request.getRequestUrl().queryParameter("language"));
+        assertEquals("\"v1\"", request.getHeader("If-None-Match"));
+        assertEquals("Sat, 17 Oct 2026 10:00:00 GMT", request.getHeader("If-Modified-Since"));
+
+        // Deleted entries are kept with a null value, so they can be removed from what is persisted
+        final TranslationBatch batch = response.body();
+        final Map<String, String> translations = LCTranslationBatchConverterFactoryTest.read(batch);
+        assertEquals(3, batch.size());
+        assertEquals("Ny titel", translations.get("screen.title"));
+        assertTrue(translations.containsKey("screen.body"));
+        assertNull(translations.get("screen.body"));
+        assertTrue(translations.containsKey("screen.footer"));
+        assertNull(translations.get("screen.footer"));
+    }
+
+    @Test
+    public void notModified() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(304));
+
+        final Response<TranslationBatch> response = getTranslations(1234L, "\"v1\"", null);
+
+        assertEquals("\"v1\"", mServer.takeRequest().getHeader("If-None-Match"));
+        assertEquals(304, response.code());
+        assertFalse(response.isSuccessful());
+        assertNull(response.body());
+    }
+
+    @Test
+    public void malformedBodyFails() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("[{\"key\":\"screen.title\",\"value\":"));
+
+        try {
+            getTranslations(null, null, null);
+            fail("A truncated body was parsed");
+
+        } catch (IOException e) {
+            // Expected, and retried by the caller like any other network failure
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package com.novasa.languagecenter.service;
+
+import com.google.gson.reflect.TypeToken;
+import com.novasa.languagecenter.model.Translation;
+import com.novasa.languagecenter.model.TranslationBatch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.Okio;
+import retrofit2.Converter;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LCTranslationBatchConverterFactoryTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /** Keeps what is being measured reachable, since the JIT may consider a local dead before the measurement */
+    private Object mMeasured;
+
+    @SuppressWarnings("unchecked")
+    private Converter<ResponseBody, TranslationBatch> converter() {
+        return (Converter<ResponseBody, TranslationBatch>) new LCTranslationBatchConverterFactory(runDirectory())
+                .responseBodyConverter(TranslationBatch.class, new Annotation[0], null);
+    }
+
+    private File runDirectory() {
+        return new File(mFolder.getRoot(), TranslationBatch.RUN_DIRECTORY);
+    }
+
+    private TranslationBatch convert(byte[] json) throws Exception {
+        return converter().convert(ResponseBody.create(JSON, json));
+    }
+
+    /**
+     * Read the entries of a batch into a map, the way the pack merges them: a later run wins.
+     */
+    static Map<String, String> read(TranslationBatch batch) throws IOException {
+        final Map<String, String> translations = new HashMap<>();
+        for (final TranslationBatch.Reader reader : batch.openReaders()) {
+            try {
+                while (reader.next()) {
+                    final byte[] value = reader.getValue();
+                    translations.put(reader.getKey(), value != null ? new String(value, UTF8) : null);
+                }
+
+            } finally {
+                reader.close();
+            }
+        }
+        return translations;
+    }
+
+    /**
+     * @return an entry of a strings response like the server sends, with every field of a translation
+     */
+    private static String entry(int i) {
+        return "{\"key\":\"screen" + (i / 20) + ".label" + (i % 20)
+                + "\",\"value\":\"Translation " + i + " æøå\""
+                + ",\"language\":\"da\",\"timestamp\":" + (1600000000L + i)
+                + ",\"deleted\":" + (i % 1000 == 999)
+                + ",\"comment\":{\"author\":\"someone\",\"tags\":[\"a\",\"b\"]}}";
+    }
+
+    private static byte[] response(int count) {
+        final StringBuilder json = new StringBuilder(count * 128).append('[');
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(entry(i));
+        }
+        return json.append(']').toString().getBytes(UTF8);
+    }
+
+    @Test
+    public void onlyOtherTypesAreLeftToGson() {
+        final LCTranslationBatchConverterFactory factory = new LCTranslationBatchConverterFactory(null);
+        assertNull(factory.responseBodyConverter(Translation.class, new Annotation[0], null));
+        assertNull(factory.responseBodyConverter(List.class, new Annotation[0], null));
+    }
+
+    @Test
+    public void convert() throws Exception {
+        final TranslationBatch batch = convert(response(2000));
+        final Map<String, String> translations = read(batch);
+
+        assertEquals(2000, batch.size());
+        assertEquals("Translation 0 æøå", translations.get("screen0.label0"));
+        assertEquals("Translation 1998 æøå", translations.get("screen99.label18"));
+
+        // Deleted
+        assertTrue(translations.containsKey("screen49.label19"));
+        assertNull(translations.get("screen49.label19"));
+    }
+
+    @Test
+    public void largeResponsesSpillToRuns() throws Exception {
+        final TranslationBatch batch = convert(response(20000));
+
+        final String[] runs = runDirectory().list();
+        assertTrue(runs != null && runs.length > 1);
+
+        final Map<String, String> translations = read(batch);
+        assertEquals(20000, translations.size());
+        assertEquals("Translation 19998 æøå", translations.get("screen999.label18"));
+        assertNull(translations.get("screen999.label19"));
+
+        batch.close();
+        assertEquals(0, runDirectory().list().length);
+    }
+
+    @Test
+    public void failedResponseDeletesRuns() throws Exception {
+        final byte[] json = response(20000);
+
+        try {
+            // Cut off in the middle of the response
+            converter().convert(ResponseBody.create(JSON, Arrays.copyOf(json, json.length / 2)));
+            fail("Converted a truncated response");
+
+        } catch (IOException e) {
+            // Expected
+        }
+
+        final String[] runs = runDirectory().list();
+        assertTrue(runs == null || runs.length == 0);
+    }
+
+    @Test
+    public void peakHeapIsFlat() throws Exception {
+        // Warm up, so the parser is compiled before it is measured
+        measurePeak(10000);
+
+        final long small = measurePeak(10000);
+        final long large = measurePeak(100000);
+
+        // Ten times the entries must not take up more memory at any point while parsing. The slack allows for the noise of measuring the heap.
+        assertTrue("Peak live heap grew from " + small / 1024 + " KB at 10000 entries to " + large / 1024 + " KB at 100000 entries",
+                large < small + 512 * 1024);
+    }
+
+    /**
+     * Parse a generated response, without holding the response itself in memory, and sample the live heap while it is being parsed.
+     *
+     * @return the largest live heap seen while parsing, on top of what was live before
+     */
+    private long measurePeak(final int count) throws Exception {
+        final long before = usedHeap();
+
+        final Response response = new Response(count, before);
+        final TranslationBatch batch = converter().convert(ResponseBody.create(JSON, -1, Okio.buffer(Okio.source(response))));
+
+        // What the batch holds on to once parsing is done counts too
+        mMeasured = batch;
+        response.sample();
+        mMeasured = null;
+
+        assertEquals(count, batch.size());
+        batch.close();
+
+        return response.mPeak;
+    }
+
+    /**
+     * A response that is generated as it is read, which samples the live heap every {@value #SAMPLE_BYTES} bytes.
+     */
+    private static final class Response extends InputStream {
+
+        private static final int SAMPLE_BYTES = 512 * 1024;
+
+        private final int mCount;
+        private final long mBaseline;
+
+        private byte[] mChunk = "[".getBytes(UTF8);
+        private int mPosition;
+        private int mEntry;
+        private long mRead;
+
+        long mPeak;
+
+        Response(int count, long baseline) {
+            mCount = count;
+            mBaseline = baseline;
+        }
+
+        void sample() {
+            mPeak = Math.max(mPeak, usedHeap() - mBaseline);
+        }
+
+        @Override
+        public int read() {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (mPosition == mChunk.length) {
+                if (mEntry > mCount) {
+                    return -1;
+                }
+
+                mChunk = (mEntry == mCount ? "]" : (mEntry > 0 ? "," : "") + entry(mEntry)).getBytes(UTF8);
+                mPosition = 0;
+                mEntry++;
+            }
+
+            final int n = Math.min(len, mChunk.length - mPosition);
+            System.arraycopy(mChunk, mPosition, b, off, n);
+            mPosition += n;
+
+            if (mRead / SAMPLE_BYTES != (mRead + n) / SAMPLE_BYTES) {
+                sample();
+            }
+            mRead += n;
+            return n;
+        }
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        final byte[] json = response(100000);
+
+        // Let both parsers get compiled
+        for (int i = 0; i < 3; i++) {
+            convert(json);
+            parseWithGson(json);
+        }
+
+        final Measurement streamed = measure(json, true);
+        final Measurement gson = measure(json, false);
+
+        final String report = String.format("100000 entries, %d KB of JSON. Streamed: %s. List<Translation> and map: %s", json.length / 1024, streamed, gson);
+
+        // Lenient, since the heap is measured with the garbage collector. Spilling runs allocates more in total, in exchange for a bounded peak.
+        assertTrue(report, streamed.mPeak < gson.mPeak);
+    }
+
+    /**
+     * How the response was read before the batch converter: a translation object per entry, which were then copied into a map.
+     * Both are returned, since both were reachable at the same time.
+     */
+    @SuppressWarnings("unchecked")
+    private static Object[] parseWithGson(byte[] json) throws Exception {
+        final Type type = new TypeToken<List<Translation>>() {}.getType();
+        final Converter<ResponseBody, List<Translation>> converter = (Converter<ResponseBody, List<Translation>>) GsonConverterFactory.create()
+                .responseBodyConverter(type, new Annotation[0], null);
+
+        final List<Translation> translations = converter.convert(ResponseBody.create(JSON, json));
+
+        final Map<String, String> map = new HashMap<>();
+        for (final Translation translation : translations) {
+            map.put(translation.getKey(), translation.getValue());
+        }
+        return new Object[]{translations, map};
+    }
+
+    private Measurement measure(byte[] json, boolean streamed) throws Exception {
+        final Measurement measurement = new Measurement();
+
+        final long before = usedHeap();
+        final long allocatedBefore = allocatedBytes();
+        final long start = System.nanoTime();
+
+        final Object result = streamed ? convert(json) : parseWithGson(json);
+        mMeasured = result;
+
+        measurement.mMillis = (System.nanoTime() - start) / 1000000;
+        measurement.mAllocated = allocatedBefore >= 0 ? allocatedBytes() - allocatedBefore : -1;
+        measurement.mPeak = usedHeap() - before;
+        mMeasured = null;
+
+        if (result instanceof TranslationBatch) {
+            ((TranslationBatch) result).close();
+        }
+
+        return measurement;
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * @return the bytes allocated by this thread so far, or -1 if the JVM can't tell
+     */
+    private static long allocatedBytes() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static final class Measurement {
+
+        long mMillis;
+        long mAllocated;
+
+        /** What was reachable once parsing was done, which is when the most was reachable */
+        long mPeak;
+
+        @Override
+        public String toString() {
+            return String.format("%d ms, %d KB allocated, %d KB peak live heap", mMillis, mAllocated / 1024, mPeak / 1024);
+        }
+    }
+}